@@ -1,9 +1,15 @@
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
 public class BenchmarkRunner {
+    private static final Pattern STATUS_RE = Pattern.compile("(?m)^\\S+ \\S+ \\S+ \\[[^\\]]*\\] \"[^\"]*\" (\\d{3}) ");
+
     private static class Result {
         long originalBytes;
         long smartRleBytes;
@@ -11,6 +17,8 @@ public class BenchmarkRunner {
         double compressMsSmart;
         double decompressMsSmart;
         double compressMsGzip;
+        double aggregateMsSmart;
+        double decompressParseMsSmart;
         boolean correctness;
     }
 
@@ -32,6 +40,8 @@ public class BenchmarkRunner {
         System.out.println("SmartRLE compress ms: " + fmt(r.compressMsSmart));
         System.out.println("SmartRLE decompress ms: " + fmt(r.decompressMsSmart));
         System.out.println("GZIP compress ms: " + fmt(r.compressMsGzip));
+        System.out.println("SmartRLE aggregate ms: " + fmt(r.aggregateMsSmart)
+                + " (decompress+parse ms: " + fmt(r.decompressParseMsSmart) + ")");
         System.out.println("Correctness (SmartRLE): " + r.correctness);
     }
 
@@ -50,6 +60,15 @@ public class BenchmarkRunner {
         r.smartRleBytes = compressed.getBytes(StandardCharsets.UTF_8).length;
         r.correctness = text.equals(decompressed);
 
+        // status histogram straight from the compressed columns vs. decompress-then-parse
+        long a0 = System.nanoTime();
+        codec.aggregate(compressed);
+        long a1 = System.nanoTime();
+        countStatusesFromText(codec.decompress(compressed));
+        long a2 = System.nanoTime();
+        r.aggregateMsSmart = (a1 - a0) / 1_000_000.0;
+        r.decompressParseMsSmart = (a2 - a1) / 1_000_000.0;
+
         long t3 = System.nanoTime();
         byte[] gz = gzip(text.getBytes(StandardCharsets.UTF_8));
         long t4 = System.nanoTime();
@@ -59,6 +78,15 @@ public class BenchmarkRunner {
         return r;
     }
 
+    private static Map<String, Integer> countStatusesFromText(String text) {
+        Map<String, Integer> counts = new HashMap<>();
+        Matcher m = STATUS_RE.matcher(text);
+        while (m.find()) {
+            counts.merge(m.group(1), 1, Integer::sum);
+        }
+        return counts;
+    }
+
     private static String percent(long num, long den) {
         if (den == 0) return "0.00";
         double v = (num * 100.0) / den;
@@ -6,12 +6,18 @@ import java.time.format.DateTimeFormatter;
 import java.util.Locale;
 import java.io.ByteArrayOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.CRC32C;
 
 /**
  * SmartRLE - Hibrit Sıkıştırma Algoritması
@@ -28,18 +34,17 @@ public class SmartRLE {
     private Map<String, String> dictionary;
     private Map<Character, Integer> frequencyMap;
     private List<String> commonPatterns;
-    private int compressionLevel;
-    private double threshold;
+    private int compressionLevel;               // 1 (fast ingest) .. 9 (small cold archives), see setCompressionLevel
     // New reversible state
     private Map<String, String> patternHistory; // code -> original pattern
     private Map<String, String> lineTemplates;  // Lxx -> normalized line
     private List<String> timestamps;            // original timestamps
-    private List<String> ips;                   // original IPs
-    private List<String> uuids;                 // original UUIDs
-    private List<String> ids;                   // original numeric IDs
+    private IpColumn ips;                       // original IPs (one per occurrence, packed)
+    private UuidColumn uuids;                   // original UUIDs (distinct table + per-occurrence index)
+    private NumericIdColumn ids;                // original numeric IDs (packed)
     private List<String> apacheTimestamps;      // original Apache-style timestamps (fallback)
     private long apacheTsBaseEpoch;             // base epoch seconds for ATS
-    private List<Integer> apacheTsDeltas;       // delta seconds for ATS
+    private IntList apacheTsDeltas;             // delta seconds for ATS
     private String apacheTsOffset;              // timezone offset like +0300
     // Field-level mappings (segment/global for now)
     private List<String> methods;
@@ -54,26 +59,72 @@ public class SmartRLE {
     private Map<String, String> charMap;        // Cx -> original char
     private int nextPatternCode;                // counter for Pxx
     private int nextLineCode;                   // counter for Lxx
+    private Map<String, String> lineCodes;      // normalized line -> wrapped Lxx (encode-side index of lineTemplates)
+    private int maxLineCodes;                   // LCODE entry budget per segment
+    private int maxLineCodeChars;               // LCODE section budget (escaped line chars) per segment
+    private long lineCodeCost;                  // LCODE section chars admitted so far in this segment
+    private int chunkWindow;                    // stream lines kept for cross-segment chunk refs (0 = refs stay in the segment)
+    private ChunkStream chunkStream;            // running stream of normalized lines and chunks (null = none yet)
+    private long chunkBase;                     // CHUNKS: stream line where this segment starts (-1 = segment-local)
+    private int chunkBaseWindow;                // CHUNKS: window the encoder kept
     private Set<String> usedDictCodes;          // which DICT codes were applied
     private String eol;                         // original line ending ("\n" or "\r\n")
     private boolean hasTrailingEol;             // original input had trailing EOL
+    private boolean adaptivePlanning;           // sample input and skip stages that do not pay off
+    private String stagePlan;                   // enabled stage letters, recorded as PLAN: in header
+    private boolean opcodeRuns;                 // DATA runs use OP_RUN + varint length (RUNS:OP); false = legacy markers
+    private boolean tagCodes;                   // placeholders and codes are TAG tokens (CODES:TAG); false = __X__ / ~X~ text
+    private boolean containerMode;              // keep the smallest of SmartRLE / SmartRLE+Deflate / stored
+    private int[] deflateLevels;                // Deflater levels tried on DATA in container mode
+    private String dataCoding;                  // DATA: header flag (null = plain SmartRLE text)
+    private boolean huffmanEnabled;             // try canonical Huffman on DATA in container mode
+    private int headerDeflateLevel;             // Deflater level for headers in the binary container
+    private Deflater deflater;                  // reused across calls (lazy)
+    private Inflater inflater;                  // reused across calls (lazy)
+    private boolean metricsEnabled;             // opt-in per-call metrics
+    private CompressionMetrics metrics;         // current/last call metrics (null when disabled)
+    private CompressionEvent jfrOperation;      // in-flight JFR events (null unless recording)
+    private StageEvent jfrStage;
+    private String currentOperation;
+    private String formatMode;                  // "auto", "none" or a SmartRLEFormats plugin name
+    private String formatName;                  // FMT: of this segment (null = no plugin lines)
+    private Map<String, Integer> fmtTemplateIds; // template -> id (__FMTid__ placeholder)
+    private List<String> fmtTemplates;
+    private Map<String, List<String>> fmtColumns; // field key -> values in line order
+    private Map<String, String> headerDict;     // DICT: entries of the last parsed header (word -> code)
+    private HeaderCache headerCache;            // parsed-header cache for decompression (null = off)
+    private BufferPool bufferPool;              // recycled stage buffers (null = allocate per call)
+    private Integer contentCrc;                 // CRC32C of the original text from the last binary container (null = none)
+    private boolean headerShared;               // header containers belong to a cached HeaderState
     private static final String CODE_SENTINEL = "~"; // compact wraps to avoid collisions
+    // Stage letters for PLAN: (pipeline order)
+    private static final char STAGE_CHUNK = 'C';
+    private static final char STAGE_DICT = 'D';
+    private static final char STAGE_TOKEN_BLOCK = 'T';
+    private static final char STAGE_PATTERN = 'P';
+    private static final char STAGE_LINE = 'L';
+    private static final char STAGE_RLE = 'R';
+    private static final String ALL_STAGES = "CDTPLR";
+    private static final String LEGACY_STAGES = "DTPLR";   // headers written before PLAN:
+    private static final String FORMAT_AUTO = "auto";
+    private static final String FORMAT_NONE = "none";
+    private static final String FMT_PREFIX = "__FMT";      // legacy __FMTt__ = line rendered from template t
+    private static final String FMT_ESCAPE = "__FMTX__";   // legacy prefix of a literal line that starts with __FMT
 
     public SmartRLE() {
         this.dictionary = new HashMap<>();
         this.frequencyMap = new HashMap<>();
         this.commonPatterns = new ArrayList<>();
-        this.compressionLevel = 1;
-        this.threshold = 0.7;
+        this.compressionLevel = DEFAULT_LEVEL;
         this.patternHistory = new LinkedHashMap<>();
         this.lineTemplates = new LinkedHashMap<>();
         this.timestamps = new ArrayList<>();
-        this.ips = new ArrayList<>();
-        this.uuids = new ArrayList<>();
-        this.ids = new ArrayList<>();
+        this.ips = new IpColumn();
+        this.uuids = new UuidColumn();
+        this.ids = new NumericIdColumn();
         this.apacheTimestamps = new ArrayList<>();
         this.apacheTsBaseEpoch = -1L;
-        this.apacheTsDeltas = new ArrayList<>();
+        this.apacheTsDeltas = new IntList();
         this.apacheTsOffset = null;
         this.methods = new ArrayList<>();
         this.paths = new ArrayList<>();
@@ -86,9 +137,27 @@ public class SmartRLE {
         this.charMap = new LinkedHashMap<>();
         this.nextPatternCode = 0;
         this.nextLineCode = 0;
+        this.lineCodes = new HashMap<>();
+        this.maxLineCodes = DEFAULT_MAX_LINE_CODES;
+        this.maxLineCodeChars = DEFAULT_MAX_LINE_CODE_CHARS;
         this.usedDictCodes = new LinkedHashSet<>();
         this.eol = "\n";
         this.hasTrailingEol = false;
+        this.adaptivePlanning = true;
+        this.formatMode = FORMAT_AUTO;
+        this.fmtTemplateIds = new HashMap<>();
+        this.fmtTemplates = new ArrayList<>();
+        this.fmtColumns = new LinkedHashMap<>();
+        this.headerDict = new LinkedHashMap<>();
+        this.headerCache = HeaderCache.shared();
+        this.bufferPool = BufferPool.shared();
+        this.stagePlan = ALL_STAGES;
+        this.chunkBase = -1L;
+        this.containerMode = false;
+        this.deflateLevels = new int[] {Deflater.DEFAULT_COMPRESSION};
+        this.dataCoding = null;
+        this.huffmanEnabled = true;
+        this.headerDeflateLevel = Deflater.BEST_COMPRESSION;
         initializeDictionary();
     }
 
@@ -112,350 +181,3095 @@ public class SmartRLE {
             return "";
         }
 
+        beginMetrics("compress");
+        String data = encodeSegment(input);
+
+        // Build header and serialize
+        long t = stageStart();
+        String header = buildHeader();
+        stageEnd("header", t, null, header);
+        String result;
+        if (containerMode) {
+            t = stageStart();
+            result = chooseContainer(input, header, data);
+            stageEnd("container", t, data, result);
+        } else {
+            t = stageStart();
+            header = maybeGzipHeader(header);
+            stageEnd("headerGzip", t, null, header);
+            StringBuilder out = new StringBuilder();
+            out.append(header).append("\n[DATA]\n").append(data);
+            result = out.toString();
+        }
+        endMetrics(input, result);
+        return result;
+    }
+
+    /**
+     * Metin aşamalarını çalıştırır; header durumu alanlarda kalır, DATA döner
+     */
+    private String encodeSegment(String input) {
         resetState();
+        this.tagCodes = true;
 
         // Stage 0: Detect line separator and preprocess (normalize timestamps/IP/UUID/IDs)
         this.eol = detectLineSeparator(input);
         this.hasTrailingEol = input.endsWith(this.eol);
+        long t = stageStart();
+        this.stagePlan = adaptivePlanning ? planStages(input) : levelStages();
+        stageEnd("plan", t, null, null);
+        t = stageStart();
         String preprocessed = preprocess(input);
+        stageEnd("preprocess", t, input, preprocessed);
+
+        // Stage 0b: Chunk refs for repeated multi-line blocks (runs without refs to keep the stream window)
+        t = stageStart();
+        String chunked = stageEnabled(STAGE_CHUNK) || chunkWindow > 0 ? applyChunkDedup(preprocessed) : preprocessed;
+        stageEnd("chunk", t, preprocessed, chunked);
 
         // Stage 1: Dictionary compression (log levels etc.)
-        String dictCompressed = applyDictionaryCompression(preprocessed);
+        t = stageStart();
+        String dictCompressed = stageEnabled(STAGE_DICT) ? applyDictionaryCompression(chunked) : chunked;
+        stageEnd("dict", t, chunked, dictCompressed);
 
         // Stage 2: Token-LZ backref compression (debugging: disabled)
         String tokenLZCompressed = dictCompressed;
 
         // Stage 3: Token-block RLE compression (new)
-        String tokenRLECompressed = applyTokenBlockRLE(tokenLZCompressed);
+        t = stageStart();
+        String tokenRLECompressed = stageEnabled(STAGE_TOKEN_BLOCK) ? applyTokenBlockRLE(tokenLZCompressed) : tokenLZCompressed;
+        stageEnd("tokenBlock", t, tokenLZCompressed, tokenRLECompressed);
 
         // Stage 4: Pattern compression (conservative to limit header growth)
-        String patternCompressed = applyPatternCompression(tokenRLECompressed);
+        t = stageStart();
+        String patternCompressed = stageEnabled(STAGE_PATTERN) ? applyPatternCompression(tokenRLECompressed) : tokenRLECompressed;
+        stageEnd("pattern", t, tokenRLECompressed, patternCompressed);
 
         // Stage 5: Line-level coding (assign Lxx to each unique line)
-        String lineCoded = applyLineCoding(patternCompressed);
+        t = stageStart();
+        String lineCoded = stageEnabled(STAGE_LINE) ? applyLineCoding(patternCompressed) : patternCompressed;
+        stageEnd("line", t, patternCompressed, lineCoded);
 
         // Stage 6: RLE (ASCII, reversible). Apply on literal characters only as safe default.
-        String rleCompressed = applyAdaptiveRLE(lineCoded);
+        t = stageStart();
+        String rleCompressed = stageEnabled(STAGE_RLE) ? applyAdaptiveRLE(lineCoded) : lineCoded;
+        stageEnd("rle", t, lineCoded, rleCompressed);
 
         // Stage 7: Aggressive reversible char mapping (disabled to avoid expansion)
         String aggressiveCompressed = rleCompressed; // applyAggressiveCompressionReversible(rleCompressed);
+        return aggressiveCompressed;
+    }
 
-        // Build header and serialize
-        String header = buildHeader();
-        header = maybeGzipHeader(header);
-        StringBuilder out = new StringBuilder();
-        out.append(header).append("\n[DATA]\n").append(aggressiveCompressed);
-        return out.toString();
+    // ===== Container mode (stored / Deflate fallback) =====
+
+    private static final String DATA_DEFLATE = "DEFLATE";
+    private static final String DATA_HUFFMAN = "HUFF";
+    private static final String DATA_STORED = "STORED";
+    private static final String STORED_PREFIX = "[SMARTRLE_HEADER]\nDATA:" + DATA_STORED + "\n[DATA]\n";
+
+    /**
+     * Konteyner modu: SmartRLE, SmartRLE+Deflate(DATA) ve ham (stored) çıktıdan en küçüğünü seçer
+     */
+    public void setContainerMode(boolean enabled) {
+        this.containerMode = enabled;
     }
 
     /**
-     * Dictionary tabanlı sıkıştırma
+     * Konteyner modunda DATA bölümüne denenecek Deflater seviyeleri (0-9, -1 = varsayılan)
      */
-    private String applyDictionaryCompression(String input) {
-        String result = input;
-        for (Map.Entry<String, String> entry : dictionary.entrySet()) {
-            String pattern = entry.getKey();
-            String code = entry.getValue();
-            // Case-sensitive whole-word match to avoid altering original casing
-            Pattern p = Pattern.compile("\\b" + Pattern.quote(pattern) + "\\b");
-            Matcher m = p.matcher(result);
-            StringBuffer sb = new StringBuffer();
-            boolean found = false;
-            while (m.find()) {
-                m.appendReplacement(sb, Matcher.quoteReplacement(wrapCode(code)));
-                found = true;
-            }
-            m.appendTail(sb);
-            if (found) {
-                usedDictCodes.add(code);
-                result = sb.toString();
+    public void setDeflateLevels(int... levels) {
+        for (int level : levels) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Invalid deflate level: " + level);
             }
         }
-        return result;
+        this.deflateLevels = levels.clone();
     }
 
     /**
-     * Gelişmiş RLE algoritması
+     * Konteyner modunda en kötü durum çıktı boyutu (UTF-8 bayt): ham blok + sabit başlık
      */
-    private String applyAdaptiveRLE(String input) {
-        if (input.length() < 3) return input;
+    public static long maxCompressedLength(long inputUtf8Bytes) {
+        return inputUtf8Bytes + STORED_PREFIX.length();
+    }
 
-        StringBuilder result = new StringBuilder();
-        int i = 0;
+    /**
+     * Konteyner modunda kanonik Huffman aşamasını aday olarak dene (varsayılan: açık)
+     */
+    public void setHuffmanEnabled(boolean enabled) {
+        this.huffmanEnabled = enabled;
+    }
 
-        while (i < input.length()) {
-            char current = input.charAt(i);
-            int count = 1;
-            while (i + count < input.length() && input.charAt(i + count) == current) {
-                count++;
+    private String chooseContainer(String input, String header, String data) {
+        String best = maybeGzipHeader(header) + "\n[DATA]\n" + data;
+        long bestBytes = utf8Length(best);
+        String bestCoding = null;
+
+        byte[] raw = data.getBytes(StandardCharsets.UTF_8);
+        String deflateHeader = maybeGzipHeader(header + "DATA:" + DATA_DEFLATE + "\n");
+        for (int level : deflateLevels) {
+            String candidate = deflateHeader + "\n[DATA]\n" + Base64.getEncoder().encodeToString(deflate(raw, level));
+            long bytes = utf8Length(candidate);
+            if (bytes < bestBytes) {
+                best = candidate;
+                bestBytes = bytes;
+                bestCoding = DATA_DEFLATE;
             }
-            if (count >= 6) {
-                // ASCII-safe format: R:<char>:<count>;
-                result.append("R:").append(escapeChar(current)).append(":").append(count).append(";");
-                i += count;
-            } else {
-                // copy as-is for short runs
-                result.append(current);
-                i++;
+        }
+        if (huffmanEnabled) {
+            String candidate = maybeGzipHeader(header + "DATA:" + DATA_HUFFMAN + "\n") + "\n[DATA]\n"
+                + Base64.getEncoder().encodeToString(Huffman.encode(raw));
+            long bytes = utf8Length(candidate);
+            if (bytes < bestBytes) {
+                best = candidate;
+                bestBytes = bytes;
+                bestCoding = DATA_HUFFMAN;
             }
         }
 
-        return result.toString();
+        long storedBytes = STORED_PREFIX.length() + utf8Length(input);
+        if (storedBytes <= bestBytes) {
+            this.dataCoding = DATA_STORED;
+            dropStoredChunks();
+            return STORED_PREFIX + input;
+        }
+        this.dataCoding = bestCoding;
+        return best;
     }
 
+    // ===== Binary container =====
+    //
+    // 'S' 'R' 'L' 'B' | version | flags (bit0: header deflated, bit1: checksums) | DATA coding
+    // varint header raw length | varint header stored length | header bytes
+    // varint DATA length | DATA bytes
+    // [checksums] CRC32C of the original UTF-8 text | CRC32C of every container byte before it (big endian)
+    //
+    // Version 2 always writes the checksums; version 1 containers (no trailer) are still read.
+
+    private static final byte[] BIN_MAGIC = {'S', 'R', 'L', 'B'};
+    private static final int BIN_VERSION = 2;
+    private static final int BIN_FLAG_HEADER_DEFLATED = 0x01;
+    private static final int BIN_FLAG_CHECKSUM = 0x02;
+    private static final int BIN_CHECKSUM_BYTES = 8;
+    private static final int BIN_DATA_PLAIN = 0;
+    private static final int BIN_DATA_DEFLATE = 1;
+    private static final int BIN_DATA_HUFFMAN = 2;
+    private static final int BIN_DATA_STORED = 3;
+
     /**
-     * Pattern tabanlı sıkıştırma
+     * İkili konteynerde header için Deflater seviyesi (0-9, -1 = varsayılan; varsayılan 9)
      */
-    private String applyPatternCompression(String input) {
-        // Line-local conservative substring patterning to keep reversibility and avoid cross-line changes
-        String[] lines = input.split("\n", -1);
-        StringBuilder out = new StringBuilder();
-        // Build reverse lookup for already assigned patterns
-        Map<String, String> patternToCode = new HashMap<>();
-        for (Map.Entry<String,String> e : patternHistory.entrySet()) {
-            patternToCode.put(e.getValue(), e.getKey());
+    public void setHeaderDeflateLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid deflate level: " + level);
         }
+        this.headerDeflateLevel = level;
+    }
 
-        for (int li = 0; li < lines.length; li++) {
-            String line = lines[li];
-            String result = line;
-            int maxLen = Math.min(12, Math.max(5, Math.max(1, line.length() / 40)));
-            for (int len = 5; len <= maxLen; len++) {
-                Map<String, Integer> freq = new HashMap<>();
-                for (int i = 0; i + len <= line.length(); i++) {
-                    String sub = line.substring(i, i + len);
-                    freq.put(sub, freq.getOrDefault(sub, 0) + 1);
+    /**
+     * İkili konteyner: header ham Deflate baytları olarak (Base64 yok), uzunluk önekli bölümler.
+     * Konteyner modu açıksa DATA için Deflate/Huffman/stored adaylarından en küçüğü seçilir.
+     */
+    public byte[] compressToBytes(String input) {
+        if (input == null || input.isEmpty()) {
+            return new byte[0];
+        }
+        beginMetrics("compress");
+        String data = encodeSegment(input);
+        long t = stageStart();
+        byte[] header = buildHeader().getBytes(StandardCharsets.UTF_8);
+        stageEnd("header", t, null, null);
+        t = stageStart();
+        byte[] plain = data.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = plain;
+        int coding = BIN_DATA_PLAIN;
+        int flags = BIN_FLAG_CHECKSUM;
+        byte[] storedHeader = header;
+        if (header.length > 0) {
+            byte[] z = deflate(header, headerDeflateLevel);
+            if (z.length < header.length) {
+                storedHeader = z;
+                flags |= BIN_FLAG_HEADER_DEFLATED;
+            }
+        }
+
+        if (containerMode) {
+            for (int level : deflateLevels) {
+                // every level starts from the plain DATA, not from the previous candidate
+                byte[] z = deflate(plain, level);
+                if (z.length < payload.length) {
+                    payload = z;
+                    coding = BIN_DATA_DEFLATE;
                 }
-                List<Map.Entry<String, Integer>> candidates = new ArrayList<>(freq.entrySet());
-                candidates.removeIf(e -> e.getValue() < 5);
-                candidates.sort((a,b) -> Integer.compare(b.getValue(), a.getValue()));
-                for (Map.Entry<String,Integer> e : candidates) {
-                    String pattern = e.getKey();
-                    if (patternHistory.size() >= 30) break;
-                    if (containsControl(pattern)) continue;
-                    String code = patternToCode.get(pattern);
-                    if (code == null) {
-                        code = nextPatternCode();
-                        patternHistory.put(code, pattern);
-                        patternToCode.put(pattern, code);
-                    }
-                    if (result.contains(pattern)) {
-                        result = result.replace(pattern, wrapCode(code));
-                    }
+            }
+            if (huffmanEnabled) {
+                byte[] h = Huffman.encode(plain);
+                if (h.length < payload.length) {
+                    payload = h;
+                    coding = BIN_DATA_HUFFMAN;
                 }
-                if (patternHistory.size() >= 30) break;
             }
-            out.append(result);
-            if (li < lines.length - 1) out.append("\n");
+            // stored competes with what is actually written: the deflated header, not the raw one
+            byte[] raw = input.getBytes(StandardCharsets.UTF_8);
+            if (raw.length <= storedHeader.length + payload.length) {
+                header = new byte[0];
+                storedHeader = header;
+                flags = BIN_FLAG_CHECKSUM;
+                payload = raw;
+                coding = BIN_DATA_STORED;
+                dropStoredChunks();
+            }
         }
-        return out.toString();
+        this.dataCoding = coding == BIN_DATA_DEFLATE ? DATA_DEFLATE
+            : coding == BIN_DATA_HUFFMAN ? DATA_HUFFMAN
+            : coding == BIN_DATA_STORED ? DATA_STORED : null;
+
+        long ct = stageStart();
+        int contentCrc = crc32cUtf8(input);
+        stageEnd("checksum", ct, null, null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(storedHeader.length + payload.length + 24 + BIN_CHECKSUM_BYTES);
+        out.write(BIN_MAGIC, 0, BIN_MAGIC.length);
+        out.write(BIN_VERSION);
+        out.write(flags);
+        out.write(coding);
+        Varint.writeVarint(out, header.length);
+        Varint.writeVarint(out, storedHeader.length);
+        out.write(storedHeader, 0, storedHeader.length);
+        Varint.writeVarint(out, payload.length);
+        out.write(payload, 0, payload.length);
+        writeInt(out, contentCrc);
+        byte[] result = out.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(result, 0, result.length);
+        result = Arrays.copyOf(result, result.length + 4);
+        putInt(result, result.length - 4, (int) crc.getValue());
+        stageEnd("container", t, null, null);
+        endMetrics(input, result);
+        return result;
     }
 
     /**
-     * Desenin tekrar sayısını hesapla
+     * compressToBytes çıktısını açar
      */
-    private int countRepeats(String text, String pattern, int startIndex) {
-        int count = 0;
-        int index = startIndex;
+    public String decompressBytes(byte[] container) {
+        if (container == null || container.length == 0) {
+            return "";
+        }
+        beginMetrics("decompress");
+        long t = stageStart();
+        String data = readBinaryContainer(container);
+        stageEnd("container", t, null, data);
+        String result = DATA_STORED.equals(dataCoding) ? data : decodeSegment(data);
+        if (contentCrc != null) {
+            t = stageStart();
+            boolean intact = crc32cUtf8(result) == contentCrc;
+            stageEnd("checksum", t, null, null);
+            if (!intact) throw new IllegalArgumentException("SmartRLE content checksum mismatch: decoded text differs from the original");
+        }
+        endMetrics(container, result);
+        return result;
+    }
 
-        while (index <= text.length() - pattern.length()) {
-            if (text.substring(index, index + pattern.length()).equals(pattern)) {
-                count++;
-                index += pattern.length();
-            } else {
-                break;
+    /**
+     * Hızlı doğrulama: art arda yazılmış konteynerlerin yapısını ve saklanan CRC32C'yi açmadan denetler (çıktı üretilmez).
+     * Segment sayısını döner; bozuk ya da kesik segmentte hangi segment olduğunu söyleyen IllegalArgumentException atar.
+     * Sürüm 1 (checksum'sız) segmentlerde yalnız yapı denetlenir. İçerik CRC'sini decompressBytes denetler.
+     */
+    public static int verify(byte[] in) {
+        int pos = 0;
+        int segments = 0;
+        while (pos < in.length) {
+            try {
+                int len = binaryContainerLength(in, pos);
+                checkContainerCrc(in, pos, len);
+                pos += len;
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("segment " + segments + " at byte " + pos + ": " + e.getMessage(), e);
             }
+            segments++;
         }
+        return segments;
+    }
 
-        return count;
+    // the last 4 bytes of a checksummed container are the CRC32C of all bytes before them
+    private static void checkContainerCrc(byte[] in, int offset, int length) {
+        if ((in[offset + BIN_MAGIC.length + 1] & BIN_FLAG_CHECKSUM) == 0) return;
+        CRC32C crc = new CRC32C();
+        crc.update(in, offset, length - 4);
+        if ((int) crc.getValue() != getInt(in, offset + length - 4)) {
+            throw new IllegalArgumentException("SmartRLE container checksum mismatch");
+        }
+    }
+
+    // CRC32C of s.getBytes(UTF_8), encoded through a 64 KB window instead of a full-size copy
+    private static int crc32cUtf8(String s) {
+        CRC32C crc = new CRC32C();
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.wrap(s);
+        ByteBuffer window = ByteBuffer.allocate(1 << 16);
+        CoderResult r;
+        do {
+            r = encoder.encode(chars, window, true);
+            window.flip();
+            crc.update(window);
+            window.clear();
+        } while (r.isOverflow());
+        return (int) crc.getValue();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int pos) {
+        return (b[pos] & 0xFF) << 24 | (b[pos + 1] & 0xFF) << 16 | (b[pos + 2] & 0xFF) << 8 | (b[pos + 3] & 0xFF);
     }
 
     /**
-     * Son optimizasyon aşaması
+     * offset'te başlayan ikili konteynerin toplam bayt uzunluğu (art arda yazılmış segmentleri ayırmak için)
      */
-    private String optimizeCompression(String input) {
-        // Basit optimizasyon - threshold kontrolü
-        if (input.length() > 100 && compressionLevel < 3) {
-            // Sıkıştırma yetersiz, daha agresif yaklaşım
-            return applyAggressiveCompression(input);
+    public static int binaryContainerLength(byte[] in, int offset) {
+        int pos = offset + BIN_MAGIC.length + 3;
+        if (pos > in.length) {
+            throw new IllegalArgumentException("Truncated SmartRLE binary container");
+        }
+        for (int k = 0; k < BIN_MAGIC.length; k++) {
+            if (in[offset + k] != BIN_MAGIC[k]) throw new IllegalArgumentException("Not a SmartRLE binary container");
+        }
+        int[] posRef = {pos};
+        Varint.readVarint(in, posRef);
+        int headerStoredLen = Varint.readVarint(in, posRef);
+        posRef[0] += headerStoredLen;
+        if (headerStoredLen < 0 || posRef[0] > in.length) {
+            throw new IllegalArgumentException("Truncated SmartRLE header section");
+        }
+        int dataLen = Varint.readVarint(in, posRef);
+        long end = (long) posRef[0] + dataLen;
+        if (dataLen < 0 || end > in.length) {
+            throw new IllegalArgumentException("Truncated SmartRLE data section");
+        }
+        if ((in[offset + BIN_MAGIC.length + 1] & BIN_FLAG_CHECKSUM) != 0) {
+            end += BIN_CHECKSUM_BYTES;
+            if (end > in.length) throw new IllegalArgumentException("Truncated SmartRLE checksum");
+        }
+        return (int) (end - offset);
+    }
+
+    // Parses the binary header into state and returns the DATA text (raw input when stored)
+    private String readBinaryContainer(byte[] in) {
+        if (in.length < BIN_MAGIC.length + 3) {
+            throw new IllegalArgumentException("Truncated SmartRLE binary container");
+        }
+        for (int k = 0; k < BIN_MAGIC.length; k++) {
+            if (in[k] != BIN_MAGIC[k]) throw new IllegalArgumentException("Not a SmartRLE binary container");
+        }
+        int pos = BIN_MAGIC.length;
+        int version = in[pos++] & 0xFF;
+        if (version < 1 || version > BIN_VERSION) {
+            throw new IllegalArgumentException("Unsupported SmartRLE binary version: " + version);
+        }
+        int flags = in[pos++] & 0xFF;
+        int coding = in[pos++] & 0xFF;
+        Integer expectedCrc = null;
+        if ((flags & BIN_FLAG_CHECKSUM) != 0) {
+            // reject damaged bytes before any section is parsed
+            int length = binaryContainerLength(in, 0);
+            checkContainerCrc(in, 0, length);
+            expectedCrc = getInt(in, length - BIN_CHECKSUM_BYTES);
+        }
+        int[] posRef = {pos};
+        int headerRawLen = Varint.readVarint(in, posRef);
+        int headerStoredLen = Varint.readVarint(in, posRef);
+        pos = posRef[0];
+        if (headerStoredLen < 0 || pos + headerStoredLen > in.length) {
+            throw new IllegalArgumentException("Truncated SmartRLE header section");
+        }
+
+        boolean deflated = (flags & BIN_FLAG_HEADER_DEFLATED) != 0;
+        // deflated headers are keyed by their stored bytes so a hit also skips the inflate;
+        // plain ones share keys with the text container
+        String plain = deflated || headerRawLen == 0 ? null : new String(in, pos, headerStoredLen, StandardCharsets.UTF_8);
+        Object key = plain != null ? plain : ByteBuffer.wrap(in, pos, headerStoredLen).slice();
+        if (!restoreCachedHeader(key)) {
+            resetState();
+            if (headerRawLen > 0) {
+                parseHeaderPlain(deflated ? new String(inflate(in, pos, headerStoredLen, headerRawLen), StandardCharsets.UTF_8) : plain);
+            }
+            if (plain == null) key = ByteBuffer.wrap(Arrays.copyOfRange(in, pos, pos + headerStoredLen));
+            cacheParsedHeader(key, headerRawLen);
         }
+        pos += headerStoredLen;
 
-        return input;
+        posRef[0] = pos;
+        int dataLen = Varint.readVarint(in, posRef);
+        pos = posRef[0];
+        if (dataLen < 0 || pos + dataLen > in.length) {
+            throw new IllegalArgumentException("Truncated SmartRLE data section");
+        }
+        contentCrc = expectedCrc;
+        switch (coding) {
+            case BIN_DATA_PLAIN:
+                dataCoding = null;
+                return new String(in, pos, dataLen, StandardCharsets.UTF_8);
+            case BIN_DATA_DEFLATE:
+                dataCoding = DATA_DEFLATE;
+                return new String(inflate(in, pos, dataLen, -1), StandardCharsets.UTF_8);
+            case BIN_DATA_HUFFMAN:
+                dataCoding = DATA_HUFFMAN;
+                return new String(Huffman.decode(Arrays.copyOfRange(in, pos, pos + dataLen)), StandardCharsets.UTF_8);
+            case BIN_DATA_STORED:
+                dataCoding = DATA_STORED;
+                return new String(in, pos, dataLen, StandardCharsets.UTF_8);
+            default:
+                throw new IllegalArgumentException("Unknown DATA coding: " + coding);
+        }
     }
 
-    /**
-     * Agresif sıkıştırma (fallback)
-     */
-    private String applyAggressiveCompression(String input) {
-        // kept for backward compatibility (unused in new pipeline)
-        return input;
+    // Deflater/Inflater are reused across calls (reset, not re-created); native state is freed by their cleaners
+    private byte[] deflate(byte[] input, int level) {
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        } else {
+            deflater.reset();
+            deflater.setLevel(level);
+        }
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
     }
 
-    private String applyAggressiveCompressionReversible(String input) {
-        Map<Character, Integer> charFreq = new HashMap<>();
-        for (char c : input.toCharArray()) {
-            charFreq.put(c, charFreq.getOrDefault(c, 0) + 1);
+    // expectedLength < 0 when unknown (text container)
+    private byte[] inflate(byte[] input, int offset, int length, int expectedLength) {
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
         }
-        List<Map.Entry<Character, Integer>> sorted = new ArrayList<>(charFreq.entrySet());
-        sorted.sort((a,b) -> Integer.compare(b.getValue(), a.getValue()));
-        String result = input;
-        int maxMap = 5;
-        int mapped = 0;
-        for (Map.Entry<Character,Integer> e : sorted) {
-            if (mapped >= maxMap) break;
-            char ch = e.getKey();
-            // skip alphanumerics and control/syntax chars to avoid breaking format
-            if (Character.isLetterOrDigit(ch)) continue;
-            if (ch == '\n' || ch == '\r' || ch == '|' || ch == ':' || ch == ';' || ch == '\\') continue;
-            String code = "C" + mapped;
-            charMap.put(code, String.valueOf(ch));
-            result = result.replace(String.valueOf(ch), code);
-            mapped++;
+        inflater.setInput(input, offset, length);
+        try {
+            if (expectedLength >= 0) {
+                byte[] out = new byte[expectedLength];
+                int filled = 0;
+                while (filled < expectedLength && !inflater.finished()) {
+                    int n = inflater.inflate(out, filled, expectedLength - filled);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    filled += n;
+                }
+                if (filled != expectedLength) {
+                    throw new IllegalArgumentException("Truncated DEFLATE section");
+                }
+                return out;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated DEFLATE section");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (java.util.zip.DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt DEFLATE section", e);
+        }
+    }
+
+    private static long utf8Length(CharSequence s) {
+        long bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    // ===== Adaptive stage planning =====
+
+    private static final int PLAN_SAMPLE_CHARS = 4096;
+    private static final int CHUNK_PLAN_SAMPLE_CHARS = 256 * 1024;
+    // Deterministic cost model (approx. ns per input char); wall-clock sampling would make output non-reproducible
+    private static final double COST_CHUNK = 8.0;
+    private static final double COST_DICT = 40.0;
+    private static final double COST_TOKEN_BLOCK = 5.0;
+    private static final double COST_PATTERN_PER_LEN = 30.0; // per substring length scanned
+    private static final double COST_LINE = 10.0;
+    private static final double COST_RLE = 3.0;
+    // Required gain = input * (PLAN_BASE_GAIN + cost * PLAN_GAIN_PER_NS)
+    private static final double PLAN_BASE_GAIN = 0.002;
+    private static final double PLAN_GAIN_PER_NS = 0.0001;
+
+    /**
+     * Log formatı eklentisi: "auto" (varsayılan, ilk satırlardan algılar), "none" ya da eklenti adı (nginx, json, syslog, logfmt)
+     */
+    public void setFormat(String format) {
+        if (!FORMAT_AUTO.equals(format) && !FORMAT_NONE.equals(format) && SmartRLEFormats.byName(format) == null) {
+            throw new IllegalArgumentException("Unknown log format: " + format);
         }
+        this.formatMode = format;
+    }
+
+    /**
+     * Son sıkıştırılan/açılan segmentin formatı (eklenti kullanılmadıysa null)
+     */
+    public String getFormat() {
+        return formatName;
+    }
+
+    /**
+     * Açma tarafı header önbelleği (varsayılan: HeaderCache.shared()); null kapatır
+     */
+    public void setHeaderCache(HeaderCache cache) {
+        this.headerCache = cache;
+    }
+
+    public HeaderCache getHeaderCache() {
+        return headerCache;
+    }
+
+    /**
+     * Aşama ara tamponlarının havuzu (varsayılan: BufferPool.shared()); null her çağrıda yeni tampon ayırır
+     */
+    public void setBufferPool(BufferPool pool) {
+        this.bufferPool = pool;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    private StringBuilder acquireBuffer(int capacity) {
+        return bufferPool == null ? new StringBuilder(capacity) : bufferPool.acquire(capacity);
+    }
+
+    // copies the stage result out and hands the buffer back; sb must not be used afterwards
+    private String finish(StringBuilder sb) {
+        String result = sb.toString();
+        if (bufferPool != null) bufferPool.release(sb);
         return result;
     }
 
     /**
-     * Sıkıştırma çözme metodu
+     * Çok geçişli yeniden yazımlar için iki havuz tamponu: her geçiş current()'ı okur, diğer tampona yazar.
+     * Geçiş eşleşme bulmazsa hiçbir şey kopyalanmaz; sonuçta tek bir String üretilir.
      */
-    public String decompress(String compressed) {
-        if (compressed == null || compressed.isEmpty()) {
-            return "";
+    private final class PingPong {
+        private StringBuilder front;
+        private StringBuilder back;
+        private CharSequence current;
+
+        PingPong(int capacity) {
+            this.front = acquireBuffer(capacity);
+            this.back = acquireBuffer(capacity);
         }
 
-        int headerIdx = compressed.indexOf("\n[DATA]\n");
-        if (headerIdx < 0) {
-            // Backward compatibility: try old pipeline
-            String result = compressed;
-            result = decompressRLE(result);
-            result = decompressDictionary(result);
-            result = decompressPatterns(result);
-            result = decompressCharacters(result);
+        PingPong reset(CharSequence text) {
+            this.current = text;
+            return this;
+        }
+
+        CharSequence current() {
+            return current;
+        }
+
+        // empty buffer for the next pass; never the one being read
+        StringBuilder target() {
+            StringBuilder t = current == front ? back : front;
+            t.setLength(0);
+            return t;
+        }
+
+        void commit(StringBuilder written) {
+            this.current = written;
+        }
+
+        String result() {
+            return current.toString();
+        }
+
+        // last use: copies the result out and returns both buffers to the pool
+        String finish() {
+            String result = current.toString();
+            release();
             return result;
         }
 
-        String headerText = compressed.substring(0, headerIdx);
-        String data = compressed.substring(headerIdx + "\n[DATA]\n".length());
+        void release() {
+            if (bufferPool != null) {
+                bufferPool.release(front);
+                bufferPool.release(back);
+            }
+            front = back = null;
+            current = null;
+        }
+    }
 
-        // parse header into state
-        parseHeader(headerText);
+    /**
+     * Satır kodu (LCODE) bütçesi: segment başına en fazla giriş ve kaçışlı satır karakteri.
+     * Bütçe aşılırsa en çok kazandıran satırlar seçilir; header boyutu girdi kardinalitesinden bağımsız kalır.
+     */
+    public void setLineCodeBudget(int maxEntries, int maxChars) {
+        if (maxEntries < 0 || maxChars < 0) throw new IllegalArgumentException("line code budget must be >= 0");
+        this.maxLineCodes = maxEntries;
+        this.maxLineCodeChars = maxChars;
+    }
 
-        // reverse aggressive char mapping
-        for (Map.Entry<String,String> e : charMap.entrySet()) {
-            data = data.replace(e.getKey(), e.getValue());
+    /**
+     * Segmentler arası parça referansları: son maxLines normalize satır sonraki compress çağrılarında
+     * referans verilebilir kalır (0 = kapalı, referanslar segment içinde). Böyle üretilen segmentler
+     * aynı sırayla tek bir SmartRLE örneğiyle açılmalıdır; CHUNKS:0 olan segment yeni akış başlatır.
+     */
+    public void setChunkHistory(int maxLines) {
+        if (maxLines < 0) throw new IllegalArgumentException("chunk history must be >= 0");
+        this.chunkWindow = maxLines;
+        if (maxLines == 0) this.chunkStream = null;
+    }
+
+    /**
+     * Parça akışını sıfırlar; sonraki segment CHUNKS:0 ile yeni bir akış başlatır (örn. yeni dosya)
+     */
+    public void resetChunkHistory() {
+        this.chunkStream = null;
+    }
+
+    /**
+     * Adaptif/tam plan seçimi (varsayılan: adaptif)
+     */
+    public void setAdaptivePlanning(boolean enabled) {
+        this.adaptivePlanning = enabled;
+    }
+
+    /**
+     * Sıkıştırma seviyesi (1-9, varsayılan 6): hız/oran ön ayarı. Aşama kümesini ve planlayıcıyı belirler;
+     * konteyner modu için DATA/header Deflate seviyelerini ve Huffman denemesini ayarlar (sonradan
+     * setDeflateLevels / setHeaderDeflateLevel / setHuffmanEnabled ile değiştirilebilir).
+     *   1   : normalizasyon + satır kodu + RLE (kalıp/sözlük madenciliği yok); Deflate(1), header Deflate(1)
+     *   2-3 : + parça referansları ve token blokları; Deflate(1) / Deflate(6), Huffman, header Deflate(1)
+     *   4-6 : tüm aşamalar, kazancı süresine değenler (adaptif plan); Deflate(varsayılan), Huffman
+     *   7-9 : tüm aşamalar, yalnız kazanca göre; Deflate(9) (8-9: 6 ve 9 denenir), Huffman
+     */
+    public void setCompressionLevel(int level) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) throw new IllegalArgumentException("Invalid compression level: " + level);
+        this.compressionLevel = level;
+        if (level == 1) {
+            this.deflateLevels = new int[] {Deflater.BEST_SPEED};
+        } else if (level <= 3) {
+            this.deflateLevels = new int[] {level == 2 ? Deflater.BEST_SPEED : 6};
+        } else if (level < RATIO_LEVEL) {
+            this.deflateLevels = new int[] {Deflater.DEFAULT_COMPRESSION};
+        } else {
+            this.deflateLevels = level == RATIO_LEVEL ? new int[] {Deflater.BEST_COMPRESSION} : new int[] {6, Deflater.BEST_COMPRESSION};
+        }
+        this.huffmanEnabled = level > 1;
+        this.headerDeflateLevel = level <= 3 ? Deflater.BEST_SPEED : Deflater.BEST_COMPRESSION;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    private static final int MIN_LEVEL = 1;
+    private static final int MAX_LEVEL = 9;
+    private static final int DEFAULT_LEVEL = 6;
+    private static final int RATIO_LEVEL = 7;      // planner ignores stage cost from here on
+    private static final String FAST_STAGES = "LR";
+    private static final String LIGHT_STAGES = "CTLR";
+
+    // stages this level may run, in pipeline order
+    private String levelStages() {
+        return compressionLevel == 1 ? FAST_STAGES : compressionLevel <= 3 ? LIGHT_STAGES : ALL_STAGES;
+    }
+
+    private boolean levelAllows(char stage) {
+        return levelStages().indexOf(stage) >= 0;
+    }
+
+    /**
+     * Son compress/decompress çağrısında kullanılan aşama planı (örn. "DTPLR", "DR")
+     */
+    public String getStagePlan() {
+        return stagePlan;
+    }
+
+    private boolean stageEnabled(char stage) {
+        return stagePlan.indexOf(stage) >= 0;
+    }
+
+    /**
+     * Girdinin ilk birkaç KB'ı üzerinde her aşamayı deneyip kazancı maliyetine değmeyenleri atlar
+     */
+    private String planStages(String input) {
+        String sample = samplePrefix(input, PLAN_SAMPLE_CHARS);
+        // header entries are paid once per segment, so scale them to the sample's share
+        double headerShare = (double) sample.length() / input.length();
+
+        SmartRLE probe = new SmartRLE();
+        probe.mapPaths = mapPaths;
+        probe.mapReferers = mapReferers;
+        probe.mapUserAgents = mapUserAgents;
+        probe.formatMode = formatMode;
+        probe.maxLineCodes = maxLineCodes;
+        probe.maxLineCodeChars = maxLineCodeChars;
+        probe.tagCodes = true;
+        StringBuilder plan = new StringBuilder(ALL_STAGES.length());
+
+        // repeated blocks are sparse, so chunks are judged on a larger raw prefix (hashing only)
+        if (levelAllows(STAGE_CHUNK)) {
+            String chunkSample = samplePrefix(input, CHUNK_PLAN_SAMPLE_CHARS);
+            keepStage(plan, STAGE_CHUNK, chunkSample, probe.applyChunkDedup(chunkSample), 0, COST_CHUNK);
+        }
+        String cur = probe.preprocess(sample);
+        if (plan.length() > 0) cur = probe.applyChunkDedup(cur);
+
+        if (levelAllows(STAGE_DICT)) {
+            String out = probe.applyDictionaryCompression(cur);
+            int headerCost = 0;
+            for (String code : probe.usedDictCodes) headerCost += "DICT:".length() + code.length() + 5; // "=xyz\n"
+            cur = keepStage(plan, STAGE_DICT, cur, out, headerCost * headerShare, COST_DICT);
+        }
+        if (levelAllows(STAGE_TOKEN_BLOCK)) {
+            cur = keepStage(plan, STAGE_TOKEN_BLOCK, cur, probe.applyTokenBlockRLE(cur), 0, COST_TOKEN_BLOCK);
+        }
+        if (levelAllows(STAGE_PATTERN)) {
+            String out = probe.applyPatternCompression(cur);
+            int maxLen = longestLine(cur) / 40;
+            double patternCost = COST_PATTERN_PER_LEN * (Math.min(12, Math.max(5, maxLen)) - 4);
+            cur = keepStage(plan, STAGE_PATTERN, cur, out, sectionCost("PAT:", probe.patternHistory) * headerShare, patternCost);
+        }
+        if (levelAllows(STAGE_LINE)) {
+            String out = probe.applyLineCoding(cur);
+            cur = keepStage(plan, STAGE_LINE, cur, out, sectionCost("LCODE:", probe.lineTemplates) * headerShare, COST_LINE);
+        }
+        if (levelAllows(STAGE_RLE)) {
+            keepStage(plan, STAGE_RLE, cur, probe.applyAdaptiveRLE(cur), 0, COST_RLE);
+        }
+        return plan.toString();
+    }
+
+    private static String samplePrefix(String input, int chars) {
+        if (input.length() <= chars) return input;
+        int cut = input.lastIndexOf('\n', chars);
+        return input.substring(0, cut > 0 ? cut + 1 : chars);
+    }
+
+    private String keepStage(StringBuilder plan, char stage, String in, String out, double headerCost, double nsPerChar) {
+        double gain = in.length() - out.length() - headerCost;
+        // from RATIO_LEVEL on only the gain counts, not the time a stage costs
+        double perNs = compressionLevel >= RATIO_LEVEL ? 0.0 : PLAN_GAIN_PER_NS;
+        double required = Math.max(1.0, in.length() * (PLAN_BASE_GAIN + nsPerChar * perNs));
+        if (gain >= required) {
+            plan.append(stage);
+            return out;
+        }
+        return in;
+    }
+
+    private int sectionCost(String prefix, Map<String, String> entries) {
+        int cost = 0;
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            cost += prefix.length() + e.getKey().length() + 2 + escapeLine(e.getValue()).length();
+        }
+        return cost;
+    }
+
+    private static int longestLine(String s) {
+        int longest = 0;
+        int start = 0;
+        while (start <= s.length()) {
+            int end = s.indexOf('\n', start);
+            if (end < 0) end = s.length();
+            longest = Math.max(longest, end - start);
+            start = end + 1;
+        }
+        return longest;
+    }
+
+    /**
+     * Dictionary tabanlı sıkıştırma
+     */
+    private String applyDictionaryCompression(String input) {
+        PingPong pp = new PingPong(input.length()).reset(input);
+        for (Map.Entry<String, String> entry : dictionary.entrySet()) {
+            String pattern = entry.getKey();
+            String code = entry.getValue();
+            // Case-sensitive whole-word match to avoid altering original casing
+            Pattern p = Pattern.compile("\\b" + Pattern.quote(pattern) + "\\b");
+            Matcher m = p.matcher(pp.current());
+            if (!m.find()) continue;
+            StringBuilder sb = pp.target();
+            String wrapped = wrapCode(code);
+            do {
+                m.appendReplacement(sb, "");
+                sb.append(wrapped);
+            } while (m.find());
+            m.appendTail(sb);
+            pp.commit(sb);
+            usedDictCodes.add(code);
+        }
+        return pp.finish();
+    }
+
+    /**
+     * Gelişmiş RLE algoritması
+     */
+    private String applyAdaptiveRLE(String input) {
+        if (input.length() < 3) return input;
+
+        int n = input.length();
+        StringBuilder result = acquireBuffer(n);
+        int literal = 0;
+        int i = 0;
+
+        while (i < n) {
+            char current = input.charAt(i);
+            if (current != OP_RUN && (i + 1 == n || input.charAt(i + 1) != current)) {
+                i++;
+                continue;
+            }
+            int count = runLength(input, i);
+            if (current == OP_RUN) {
+                // literal opcode (e.g. from the token-block or line stage): run of length 0
+                result.append(input, literal, i);
+                for (int k = 0; k < count; k++) appendRun(result, 0);
+                literal = i + count;
+            } else if (count >= MIN_CHAR_RUN) {
+                result.append(input, literal, i);
+                appendRun(result, count);
+                result.append(current);
+                literal = i + count;
+            }
+            // short runs stay in the pending literal stretch
+            i += count;
+        }
+        result.append(input, literal, n);
+
+        return finish(result);
+    }
+
+    /**
+     * Pattern tabanlı sıkıştırma
+     */
+    private String applyPatternCompression(String input) {
+        // Line-local conservative substring patterning to keep reversibility and avoid cross-line changes
+        String[] lines = input.split("\n", -1);
+        StringBuilder out = new StringBuilder();
+        // Build reverse lookup for already assigned patterns
+        Map<String, String> patternToCode = new HashMap<>();
+        for (Map.Entry<String,String> e : patternHistory.entrySet()) {
+            patternToCode.put(e.getValue(), e.getKey());
+        }
+
+        for (int li = 0; li < lines.length; li++) {
+            String line = lines[li];
+            SlowLineEvent slow = new SlowLineEvent();
+            slow.begin();
+            String result = line;
+            // tagged chars (placeholders, escaped TAGs) never start or join a pattern
+            boolean[] tagged = tagMask(line);
+            int maxLen = Math.min(12, Math.max(5, Math.max(1, line.length() / 40)));
+            for (int len = 5; len <= maxLen; len++) {
+                Map<String, Integer> freq = new HashMap<>();
+                int clean = 0; // untagged chars ending at i + len - 1
+                for (int i = 0; i + len <= line.length(); i++) {
+                    if (tagged != null) {
+                        if (i == 0) {
+                            clean = 0;
+                            for (int k = 0; k < len - 1; k++) clean = tagged[k] ? 0 : clean + 1;
+                        }
+                        clean = tagged[i + len - 1] ? 0 : clean + 1;
+                        if (clean < len) continue;
+                    }
+                    // never cut a surrogate pair: the halves would not survive UTF-8 (header, containers)
+                    if (Character.isLowSurrogate(line.charAt(i)) || Character.isHighSurrogate(line.charAt(i + len - 1))) continue;
+                    String sub = line.substring(i, i + len);
+                    freq.put(sub, freq.getOrDefault(sub, 0) + 1);
+                }
+                List<Map.Entry<String, Integer>> candidates = new ArrayList<>(freq.entrySet());
+                candidates.removeIf(e -> e.getValue() < 5);
+                candidates.sort((a,b) -> Integer.compare(b.getValue(), a.getValue()));
+                for (Map.Entry<String,Integer> e : candidates) {
+                    String pattern = e.getKey();
+                    if (patternHistory.size() >= 30) break;
+                    if (containsControl(pattern)) continue;
+                    // a single repeated char is a run: stage R codes it for less than a tag would
+                    if (pattern.chars().allMatch(c -> c == pattern.charAt(0))) continue;
+                    String code = patternToCode.get(pattern);
+                    if (code == null) {
+                        code = nextPatternCode();
+                        patternHistory.put(code, pattern);
+                        patternToCode.put(pattern, code);
+                    }
+                    if (result.contains(pattern)) {
+                        result = tagCodes ? replaceOutsideTags(result, pattern, wrapCode(code))
+                            : result.replace(pattern, wrapCode(code));
+                    }
+                }
+                if (patternHistory.size() >= 30) break;
+            }
+            slow.end();
+            if (slow.shouldCommit()) {
+                slow.stage = "pattern";
+                slow.lineIndex = li;
+                slow.lineChars = line.length();
+                slow.outputChars = result.length();
+                slow.commit();
+            }
+            out.append(result);
+            if (li < lines.length - 1) out.append("\n");
+        }
+        return out.toString();
+    }
+
+    /**
+     * Desenin tekrar sayısını hesapla
+     */
+    private int countRepeats(String text, String pattern, int startIndex) {
+        int count = 0;
+        int index = startIndex;
+
+        while (index <= text.length() - pattern.length()) {
+            if (text.substring(index, index + pattern.length()).equals(pattern)) {
+                count++;
+                index += pattern.length();
+            } else {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    private String applyAggressiveCompressionReversible(String input) {
+        Map<Character, Integer> charFreq = new HashMap<>();
+        for (char c : input.toCharArray()) {
+            charFreq.put(c, charFreq.getOrDefault(c, 0) + 1);
+        }
+        List<Map.Entry<Character, Integer>> sorted = new ArrayList<>(charFreq.entrySet());
+        sorted.sort((a,b) -> Integer.compare(b.getValue(), a.getValue()));
+        String result = input;
+        int maxMap = 5;
+        int mapped = 0;
+        for (Map.Entry<Character,Integer> e : sorted) {
+            if (mapped >= maxMap) break;
+            char ch = e.getKey();
+            // skip alphanumerics and control/syntax chars to avoid breaking format
+            if (Character.isLetterOrDigit(ch)) continue;
+            if (ch == '\n' || ch == '\r' || ch == '|' || ch == ':' || ch == ';' || ch == '\\') continue;
+            String code = "C" + mapped;
+            charMap.put(code, String.valueOf(ch));
+            result = result.replace(String.valueOf(ch), code);
+            mapped++;
+        }
+        return result;
+    }
+
+    /**
+     * Sıkıştırma çözme metodu
+     */
+    public String decompress(String compressed) {
+        if (compressed == null || compressed.isEmpty()) {
+            return "";
+        }
+
+        int headerIdx = compressed.indexOf("\n[DATA]\n");
+        if (headerIdx < 0) {
+            // Backward compatibility: try old pipeline
+            String result = compressed;
+            result = decompressRLE(result);
+            result = decompressDictionary(result);
+            result = decompressPatterns(result);
+            result = decompressCharacters(result);
+            return result;
+        }
+
+        String headerText = compressed.substring(0, headerIdx);
+        String data = compressed.substring(headerIdx + "\n[DATA]\n".length());
+
+        // parse header into state
+        beginMetrics("decompress");
+        long t = stageStart();
+        if (!restoreCachedHeader(headerText)) {
+            parseHeader(headerText);
+            cacheParsedHeader(headerText, headerText.length());
+        }
+        stageEnd("header", t, headerText, null);
+        String result = data;
+        if (!DATA_STORED.equals(dataCoding)) {
+            t = stageStart();
+            String unwrapped = unwrapTextData(data);
+            stageEnd("container", t, data, unwrapped);
+            result = decodeSegment(unwrapped);
+        }
+        endMetrics(compressed, result);
+        return result;
+    }
+
+    /**
+     * Header parse edilmiş olmalı; DATA metnini orijinal girdiye geri çevirir
+     */
+    private String decodeSegment(String data) {
+        // reverse char mapping, RLE, line codes and patterns
+        data = decodeToTokenBlocks(data);
+
+        // reverse token-block RLE (new)
+        long t = stageStart();
+        String in = data;
+        if (stageEnabled(STAGE_TOKEN_BLOCK)) {
+            data = opcodeRuns ? decodeLineRuns(data) : decompressTokenBlockRLE(data);
+        }
+        stageEnd("tokenBlock", t, in, data);
+
+        // reverse token-LZ (debugging: disabled)
+        // data = decompressTokenLZ(data);
+
+        // reverse dictionary
+        t = stageStart();
+        in = data;
+        if (stageEnabled(STAGE_DICT)) {
+            data = decompressDictionary(data);
+        }
+        stageEnd("dict", t, in, data);
+
+        // reverse chunk refs (a segment of a chunk stream also extends the stream window)
+        if (stageEnabled(STAGE_CHUNK) || chunkBase >= 0) {
+            t = stageStart();
+            in = data;
+            data = expandChunks(data);
+            stageEnd("chunk", t, in, data);
+        }
+
+        String result = data;
+
+        // denormalize tokens (__TSi__, __IPi__, __UUIDi__, __IDi__)
+        t = stageStart();
+        result = denormalize(result);
+        stageEnd("denormalize", t, data, result);
+
+        // apply original EOL and trailing EOL policy
+        result = applyEol(result);
+
+        return result;
+    }
+
+    /**
+     * Header parse edilmiş olmalı; DATA'yı token-blok akışına (S...; / B..:...;) kadar geri açar.
+     * Plan token-blok aşamasını atladıysa '\n' ile ayrılmış normalize satırlar döner.
+     */
+    private String decodeToTokenBlocks(String data) {
+        // reverse aggressive char mapping
+        for (Map.Entry<String,String> e : charMap.entrySet()) {
+            data = data.replace(e.getKey(), e.getValue());
+        }
+
+        // reverse RLE
+        if (stageEnabled(STAGE_RLE)) {
+            long t = stageStart();
+            String in = data;
+            data = opcodeRuns ? decodeCharRuns(data) : decompressRLE(data);
+            stageEnd("rle", t, in, data);
+        }
+
+        // reverse line codes
+        if (stageEnabled(STAGE_LINE)) {
+            long t = stageStart();
+            String in = data;
+            data = opcodeRuns ? decodeCodeRuns(data) : decompressLineCoding(data);
+            // line coding terminates every token with '\n', so the last one is extra
+            // (legacy token-block decoding skipped it on its own)
+            if ((opcodeRuns || !stageEnabled(STAGE_TOKEN_BLOCK)) && data.endsWith("\n")) {
+                data = data.substring(0, data.length() - 1);
+            }
+            stageEnd("line", t, in, data);
+        }
+
+        // reverse patterns
+        if (stageEnabled(STAGE_PATTERN)) {
+            long t = stageStart();
+            String in = data;
+            data = decompressPatterns(data);
+            stageEnd("pattern", t, in, data);
+        }
+        return data;
+    }
+
+    // text container: DATA section went through Deflate/Huffman + Base64
+    private String unwrapTextData(String data) {
+        if (DATA_DEFLATE.equals(dataCoding)) {
+            byte[] z = Base64.getDecoder().decode(data);
+            return new String(inflate(z, 0, z.length, -1), StandardCharsets.UTF_8);
+        } else if (DATA_HUFFMAN.equals(dataCoding)) {
+            return new String(Huffman.decode(Base64.getDecoder().decode(data)), StandardCharsets.UTF_8);
+        }
+        return data;
+    }
+
+    // ===== Multi-line records =====
+    //
+    // A record is a head line plus the continuation lines after it: indented lines, "at ...",
+    // "Caused by: ..." and "Suppressed: ...", as in a Java exception. The continuation block is one
+    // unit: line coding gives a repeated block a single LCODE template, and stage C always cuts
+    // chunks at its edges so a repeated trace matches as a whole.
+
+    private static boolean isContinuation(String line) {
+        if (line.isEmpty()) return false;
+        char c = line.charAt(0);
+        return c == ' ' || c == '\t' || line.startsWith("at ") || line.startsWith("Caused by:") || line.startsWith("Suppressed:");
+    }
+
+    // end (exclusive) of the continuation block at from; from itself when lines[from] is a head line
+    private static int continuationEnd(String[] lines, int from) {
+        int end = from;
+        while (end < lines.length && isContinuation(lines[end])) end++;
+        return end;
+    }
+
+    // ===== Content-defined chunks (stage C) =====
+    //
+    // Normalized lines are cut into chunks where a rolling hash over the last few line hashes has
+    // its CHUNK_MASK bits clear, so a repeated block (stack trace, health-check burst, periodic
+    // dump) is cut the same way wherever it appears. A chunk seen before becomes one line,
+    // CHUNK_REF <distance>_<lines>: copy that many lines starting <distance> lines back in the
+    // stream. Matches are extended line by line past the chunk. A literal line that starts with
+    // CHUNK_REF is written as CHUNK_REF '_' line. Refs are word characters only, so the dictionary
+    // stage cannot split them. With setChunkHistory the stream spans segments (CHUNKS: header).
+
+    private static final char CHUNK_REF = '\u0013';
+    private static final int CHUNK_MASK = 7;          // ~8-line chunks
+    private static final int CHUNK_MIN_LINES = 2;
+    private static final int CHUNK_MAX_LINES = 64;
+    private static final int CHUNK_MIN_CHARS = 32;    // shorter repeats are left to token blocks / line codes
+
+    private static final class ChunkStream {
+        final List<String> lines = new ArrayList<>();   // kept window; lines.get(0) is stream line 'start'
+        final Map<Long, Long> chunks = new HashMap<>(); // chunk key -> stream line of its latest literal copy
+        long start;
+
+        long end() {
+            return start + lines.size();
+        }
+
+        String line(long n) {
+            return lines.get((int) (n - start));
+        }
+
+        void trim(int window) {
+            int excess = lines.size() - window;
+            if (excess <= 0) return;
+            lines.subList(0, excess).clear();
+            start += excess;
+            chunks.values().removeIf(n -> n < start);
+        }
+    }
+
+    // a stored segment has no CHUNKS: line, so the reader never sees its lines; the next
+    // segment restarts the stream (CHUNKS:0) instead of referring past what the reader holds
+    private void dropStoredChunks() {
+        if (chunkWindow > 0) chunkStream = null;
+    }
+
+    private String applyChunkDedup(String input) {
+        String[] lines = input.split("\n", -1);
+        ChunkStream stream;
+        if (chunkWindow > 0) {
+            if (chunkStream == null) chunkStream = new ChunkStream();
+            stream = chunkStream;
+            chunkBase = stream.end();
+            chunkBaseWindow = chunkWindow;
+        } else {
+            stream = new ChunkStream();
+        }
+        long base = stream.end();
+        stream.lines.addAll(Arrays.asList(lines));
+        boolean refs = stageEnabled(STAGE_CHUNK);
+
+        List<String> out = new ArrayList<>(lines.length);
+        int emitted = 0;
+        int chunkStart = 0;
+        long rolling = 0;
+        for (int i = 0; i < lines.length; i++) {
+            rolling = (rolling << 1) + mixHash(lines[i].hashCode());
+            int len = i + 1 - chunkStart;
+            boolean cut = len >= CHUNK_MAX_LINES || (len >= CHUNK_MIN_LINES && (rolling & CHUNK_MASK) == 0)
+                || (i + 1 < lines.length && isContinuation(lines[i]) != isContinuation(lines[i + 1])); // record body edges
+            if (!cut && i + 1 < lines.length) continue;
+            int s = chunkStart;
+            chunkStart = i + 1;
+            if (s < emitted) continue; // inside an extended match
+            long key = chunkKey(lines, s, i + 1);
+            Long src = stream.chunks.get(key);
+            int match = refs && src != null ? matchLines(stream, src, base, lines, s) : 0;
+            if (match >= len && charCount(lines, s, s + match) >= CHUNK_MIN_CHARS) {
+                for (int k = emitted; k < s; k++) out.add(escapeChunkLine(lines[k]));
+                out.add(CHUNK_REF + Long.toString(base + s - src) + "_" + match);
+                emitted = s + match;
+            } else {
+                stream.chunks.put(key, base + s);
+            }
+        }
+        if (chunkWindow > 0) stream.trim(chunkWindow);
+        if (!refs) return input; // only kept the stream window
+        for (int k = emitted; k < lines.length; k++) out.add(escapeChunkLine(lines[k]));
+        return String.join("\n", out);
+    }
+
+    // lines of the stream from src that equal lines[s..]; the copy must lie wholly before line s
+    private static int matchLines(ChunkStream stream, long src, long base, String[] lines, int s) {
+        long dest = base + s;
+        int k = 0;
+        while (s + k < lines.length && src + k < dest) {
+            String line = stream.line(src + k);
+            if (!line.equals(lines[s + k])) break;
+            // placeholders of earlier segments index their own header lists
+            if (src + k < base && line.indexOf(TAG) >= 0) break;
+            k++;
+        }
+        return k;
+    }
+
+    private static String escapeChunkLine(String line) {
+        return !line.isEmpty() && line.charAt(0) == CHUNK_REF ? CHUNK_REF + "_" + line : line;
+    }
+
+    private static long chunkKey(String[] lines, int from, int to) {
+        long h = to - from;
+        for (int k = from; k < to; k++) h = h * 0x9E3779B97F4A7C15L + lines[k].hashCode();
+        return h;
+    }
+
+    private static long mixHash(int v) {
+        long x = v * 0x9E3779B97F4A7C15L;
+        return x ^ (x >>> 29);
+    }
+
+    private static int charCount(String[] lines, int from, int to) {
+        int chars = 0;
+        for (int k = from; k < to; k++) chars += lines[k].length() + 1;
+        return chars;
+    }
+
+    // '\n'-separated lines with chunk refs -> plain lines; keeps the window for CHUNKS: segments
+    private String expandChunks(String data) {
+        ChunkStream stream;
+        if (chunkBase > 0) {
+            if (chunkStream == null || chunkStream.end() != chunkBase) {
+                throw new IllegalStateException("Segment continues a chunk stream at line " + chunkBase
+                    + " but this instance is at " + (chunkStream == null ? 0 : chunkStream.end())
+                    + "; decode the segments in order with one SmartRLE");
+            }
+            stream = chunkStream;
+        } else {
+            stream = new ChunkStream();
+            if (chunkBase == 0) chunkStream = stream;
+        }
+        long base = stream.end();
+        boolean refs = stageEnabled(STAGE_CHUNK);
+        int i = 0;
+        int nl;
+        do {
+            nl = data.indexOf('\n', i);
+            int end = nl < 0 ? data.length() : nl;
+            if (refs && end > i && data.charAt(i) == CHUNK_REF) {
+                if (i + 1 < end && data.charAt(i + 1) == '_') {
+                    stream.lines.add(data.substring(i + 2, end));
+                } else {
+                    int sep = data.indexOf('_', i + 1);
+                    int distance = sep < 0 || sep > end ? -1 : parseIndex(data, i + 1, sep);
+                    int count = distance < 0 ? -1 : parseIndex(data, sep + 1, end);
+                    long src = stream.end() - distance;
+                    if (distance <= 0 || count <= 0 || src < stream.start || src + count > stream.end()) {
+                        throw new IllegalArgumentException("Corrupt chunk ref at " + i);
+                    }
+                    for (int k = 0; k < count; k++) stream.lines.add(stream.line(src + k));
+                }
+            } else {
+                stream.lines.add(data.substring(i, end));
+            }
+            i = end + 1;
+        } while (nl >= 0);
+        String result = String.join("\n", stream.lines.subList((int) (base - stream.start), stream.lines.size()));
+        if (chunkBase >= 0) stream.trim(chunkBaseWindow);
+        return result;
+    }
+
+    // ===== Run opcodes (RUNS:OP) =====
+    //
+    // One run form for all three stages: OP_RUN, the length as a varint over RUN_DIGITS
+    // (5 bits per digit; digits 32..63 continue, 0..31 end), then the unit:
+    //   char stage   OP_RUN n c          n x c; n = 0 is a literal OP_RUN
+    //   token blocks OP_RUN n line;      n x line (';' inside lines is escaped)
+    //   line codes   OP_RUN n token\n    n x template(token), or n x token when it is not a code
+    // The opcode plays the role of OP_RLE_BLOCK in the binary token stream; the digits avoid
+    // the characters other stages look for ('\n', ';', '~', '\\').
+
+    private static final char OP_RUN = '\u0012';
+    private static final String RUN_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    private static final int[] RUN_DIGIT_VALUES = new int[128];
+    private static final int MIN_CHAR_RUN = 4;
+
+    static {
+        Arrays.fill(RUN_DIGIT_VALUES, -1);
+        for (int d = 0; d < RUN_DIGITS.length(); d++) RUN_DIGIT_VALUES[RUN_DIGITS.charAt(d)] = d;
+    }
+
+    private static void appendRun(StringBuilder sb, int length) {
+        sb.append(OP_RUN);
+        int v = length;
+        while (v >= 32) {
+            sb.append(RUN_DIGITS.charAt(32 | (v & 31)));
+            v >>>= 5;
+        }
+        sb.append(RUN_DIGITS.charAt(v));
+    }
+
+    // posRef points just after OP_RUN; advanced past the length
+    private static int readRunLength(String s, int[] posRef) {
+        int pos = posRef[0];
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 5) {
+            char c = pos < s.length() ? s.charAt(pos) : 0;
+            int d = c < 128 ? RUN_DIGIT_VALUES[c] : -1;
+            if (d < 0) throw new IllegalArgumentException("Corrupt run length at " + pos);
+            pos++;
+            v |= (d & 31) << shift;
+            if (d < 32) {
+                posRef[0] = pos;
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Run length too long at " + pos);
+    }
+
+    // ';' is the token terminator; unescapeLine already maps "\;" back
+    private String escapeToken(String line) {
+        return escapeLine(line).replace(";", "\\;");
+    }
+
+    // one pass over a char[]: literal stretches via getChars, runs via Arrays.fill
+    private static String decodeCharRuns(String s) {
+        int op = s.indexOf(OP_RUN);
+        if (op < 0) return s;
+        char[] out = new char[s.length() + 64];
+        int o = 0;
+        int i = 0;
+        int[] pos = new int[1];
+        for (; op >= 0; op = s.indexOf(OP_RUN, i)) {
+            pos[0] = op + 1;
+            int n = readRunLength(s, pos);
+            if (n != 0 && pos[0] >= s.length()) throw new IllegalArgumentException("Corrupt run at " + op);
+            int need = o + (op - i) + Math.max(n, 1);
+            if (need > out.length) {
+                if (need < 0 || need > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Decoded runs too large");
+                out = Arrays.copyOf(out, Math.max(need + (s.length() - op), (int) Math.min(Integer.MAX_VALUE - 8, out.length * 2L)));
+            }
+            s.getChars(i, op, out, o);
+            o += op - i;
+            if (n == 0) {
+                out[o++] = OP_RUN;
+                i = pos[0];
+            } else {
+                Arrays.fill(out, o, o + n, s.charAt(pos[0]));
+                o += n;
+                i = pos[0] + 1;
+            }
+        }
+        int rest = s.length() - i;
+        if (o + rest > out.length) out = Arrays.copyOf(out, o + rest);
+        s.getChars(i, s.length(), out, o);
+        return new String(out, 0, o + rest);
+    }
+
+    // token blocks -> '\n'-joined normalized lines
+    private String decodeLineRuns(String s) {
+        StringBuilder out = acquireBuffer(s.length() + (s.length() >> 1));
+        StringBuilder line = new StringBuilder();
+        int[] pos = new int[1];
+        int n = s.length();
+        int i = 0;
+        boolean first = true;
+        int esc = s.indexOf('\\'); // next escape; re-searched only once passed
+        while (i < n) {
+            int count = 1;
+            if (s.charAt(i) == OP_RUN) {
+                pos[0] = i + 1;
+                count = readRunLength(s, pos);
+                i = pos[0];
+            }
+            line.setLength(0);
+            int semi = s.indexOf(';', i);
+            if (esc >= 0 && esc < i) esc = s.indexOf('\\', i);
+            if (semi >= 0 && (esc < 0 || esc > semi)) {
+                // common case: no escapes before the terminator, copy the token in bulk
+                line.append(s, i, semi);
+                i = semi + 1;
+            } else {
+                while (i < n) {
+                    char c = s.charAt(i++);
+                    if (c == ';') break;
+                    if (c == '\\' && i < n) {
+                        char e = s.charAt(i++);
+                        line.append(e == 'n' ? '\n' : e);
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                if (!first) out.append('\n');
+                first = false;
+                out.append(line);
+            }
+        }
+        return finish(out);
+    }
+
+    // line-coded tokens ('\n'-terminated) -> lines, each '\n'-terminated
+    private String decodeCodeRuns(String s) {
+        StringBuilder out = acquireBuffer(s.length() * 2);
+        int[] pos = new int[1];
+        int i = 0;
+        int nl;
+        while ((nl = s.indexOf('\n', i)) >= 0) {
+            int count = 1;
+            if (i < nl && s.charAt(i) == OP_RUN) {
+                pos[0] = i + 1;
+                count = readRunLength(s, pos);
+                i = pos[0];
+            }
+            String token = s.substring(i, nl);
+            String line = lineTemplates.get(token);
+            if (line == null) line = token;
+            for (int k = 0; k < count; k++) out.append(line).append('\n');
+            i = nl + 1;
+        }
+        return finish(out);
+    }
+
+    // ===== Placeholder tags (CODES:TAG) =====
+    //
+    // Every placeholder and code is TAG, a kind letter and its index: decimal digits whose last digit
+    // is written as 'a'..'j', so the token ends itself (TAG I 1c = ips[12]). A literal TAG in the input
+    // is written twice; that is the only escape, and lines without TAG are never rewritten for it.
+    // Index chars are all word chars, so the \b-bounded dictionary and normalization regexes never
+    // match inside a tag; patterns skip tag spans. Decoding is one indexOf(TAG) walk per stage.
+
+    private static final char TAG = '\u0010';
+    private static final char TAG_TS = 'T';
+    private static final char TAG_APACHE_TS = 'A';
+    private static final char TAG_IP = 'I';
+    private static final char TAG_METHOD = 'M';
+    private static final char TAG_PATH = 'H';
+    private static final char TAG_STATUS = 'S';
+    private static final char TAG_REFERER = 'R';
+    private static final char TAG_USER_AGENT = 'U';
+    private static final char TAG_UUID = 'Q';
+    private static final char TAG_ID = 'N';
+    private static final char TAG_FORMAT = 'F';        // whole line rendered from format template i
+    private static final char TAG_DICT = 'D';          // the code letters of DICT:/PAT:/LCODE:
+    private static final char TAG_PATTERN = 'P';
+    private static final char TAG_LINE = 'L';
+
+    private static void appendTag(StringBuilder sb, char kind, int index) {
+        sb.append(TAG).append(kind);
+        if (index >= 10) sb.append(index / 10);
+        sb.append((char) ('a' + index % 10));
+    }
+
+    private static String tag(char kind, int index) {
+        StringBuilder sb = new StringBuilder(8);
+        appendTag(sb, kind, index);
+        return sb.toString();
+    }
+
+    // posRef: first index char in, first char after the tag out
+    private static int readTagIndex(String s, int[] posRef) {
+        int pos = posRef[0];
+        int v = 0;
+        for (int digits = 0; digits < 10 && pos < s.length(); digits++) {
+            char c = s.charAt(pos++);
+            if (c >= 'a' && c <= 'j') {
+                posRef[0] = pos;
+                return v * 10 + (c - 'a');
+            }
+            if (c < '0' || c > '9') break;
+            v = v * 10 + (c - '0');
+        }
+        throw new IllegalArgumentException("Corrupt placeholder tag at " + posRef[0]);
+    }
+
+    // end of the tag or escaped TAG pair starting at t
+    private static int tagEnd(String s, int t) {
+        if (t + 1 >= s.length()) throw new IllegalArgumentException("Corrupt placeholder tag at " + t);
+        if (s.charAt(t + 1) == TAG) return t + 2;
+        int[] pos = {t + 2};
+        readTagIndex(s, pos);
+        return pos[0];
+    }
+
+    private static String escapeTags(String line) {
+        return line.replace(String.valueOf(TAG), String.valueOf(TAG) + TAG);
+    }
+
+    // [from, to) touches a tag or an escaped TAG pair
+    private static boolean overlapsTag(String s, int from, int to) {
+        int t = s.indexOf(TAG);
+        while (t >= 0 && t < to) {
+            int end = tagEnd(s, t);
+            if (end > from) return true;
+            t = s.indexOf(TAG, end);
+        }
+        return false;
+    }
+
+    // one pass: tags of `kind` become values[index]; other tags and escaped TAGs are copied unchanged
+    private String expandTagKind(String s, char kind, String[] values) {
+        int t = s.indexOf(TAG);
+        if (t < 0) return s;
+        StringBuilder out = acquireBuffer(s.length() + (s.length() >> 2));
+        int[] pos = new int[1];
+        int literal = 0;
+        while (t >= 0) {
+            int end = tagEnd(s, t);
+            if (s.charAt(t + 1) == kind) {
+                pos[0] = t + 2;
+                int index = readTagIndex(s, pos);
+                if (index >= values.length || values[index] == null) {
+                    throw new IllegalArgumentException("Unknown " + kind + " code at " + t);
+                }
+                out.append(s, literal, t).append(values[index]);
+                literal = end;
+            }
+            t = s.indexOf(TAG, end);
+        }
+        out.append(s, literal, s.length());
+        return finish(out);
+    }
+
+    // null when the line has no TAG; else true for every char of a tag or escaped TAG pair
+    private static boolean[] tagMask(String line) {
+        int t = line.indexOf(TAG);
+        if (t < 0) return null;
+        boolean[] mask = new boolean[line.length()];
+        while (t >= 0) {
+            int end = tagEnd(line, t);
+            Arrays.fill(mask, t, end, true);
+            t = line.indexOf(TAG, end);
+        }
+        return mask;
+    }
+
+    // String.replace that leaves occurrences touching a tag (earlier codes, placeholders) alone
+    private static String replaceOutsideTags(String s, String target, String replacement) {
+        if (s.indexOf(TAG) < 0) return s.replace(target, replacement);
+        StringBuilder out = new StringBuilder(s.length());
+        int literal = 0;
+        int i = s.indexOf(target);
+        while (i >= 0) {
+            if (overlapsTag(s, i, i + target.length())) {
+                i = s.indexOf(target, i + 1);
+                continue;
+            }
+            out.append(s, literal, i).append(replacement);
+            literal = i + target.length();
+            i = s.indexOf(target, literal);
+        }
+        if (literal == 0) return s;
+        return out.append(s, literal, s.length()).toString();
+    }
+
+    // DICT:/PAT: entries ("D05" -> word) as an array indexed by code number
+    private static String[] codeTable(Map<String, String> codeToText) {
+        int size = 0;
+        for (String code : codeToText.keySet()) size = Math.max(size, Integer.parseInt(code.substring(1)) + 1);
+        String[] table = new String[size];
+        for (Map.Entry<String, String> e : codeToText.entrySet()) table[Integer.parseInt(e.getKey().substring(1))] = e.getValue();
+        return table;
+    }
+
+    // ===== Scanning =====
+    //
+    // Literal stretches are copied in bulk and lines are found with String.indexOf(char), which
+    // HotSpot compiles to a SIMD scan; only run bodies are walked a char at a time.
+
+    private static int runLength(String s, int from) {
+        char c = s.charAt(from);
+        int j = from + 1;
+        int n = s.length();
+        while (j < n && s.charAt(j) == c) j++;
+        return j - from;
+    }
+
+    // same as s.split(crlf ? "\r?\n" : "\n", -1) without the regex
+    private static String[] splitLines(String s, boolean crlf) {
+        List<String> lines = new ArrayList<>();
+        int i = 0;
+        int nl;
+        while ((nl = s.indexOf('\n', i)) >= 0) {
+            int end = crlf && nl > i && s.charAt(nl - 1) == '\r' ? nl - 1 : nl;
+            lines.add(s.substring(i, end));
+            i = nl + 1;
+        }
+        lines.add(s.substring(i));
+        return lines.toArray(new String[0]);
+    }
+
+    private String decompressRLE(String input) {
+        int i = input.indexOf("R:");
+        if (i < 0) return input;
+        StringBuilder out = new StringBuilder(input.length());
+        out.append(input, 0, i);
+        while (i < input.length()) {
+            if (input.startsWith("R:", i)) {
+                int c1 = input.indexOf(':', i + 2);
+                int c2 = input.indexOf(';', i + 3);
+                if (c1 > 0 && c2 > c1) {
+                    String chEnc = input.substring(i + 2, c1);
+                    int count = Integer.parseInt(input.substring(c1 + 1, c2));
+                    char ch = unescapeChar(chEnc);
+                    for (int k = 0; k < count; k++) out.append(ch);
+                    i = c2 + 1;
+                    continue;
+                }
+            }
+            // bulk-copy literal text up to the next run marker
+            int next = input.indexOf("R:", i + 1);
+            if (next < 0) next = input.length();
+            out.append(input, i, next);
+            i = next;
+        }
+        return out.toString();
+    }
+
+    private String decompressDictionary(String input) {
+        if (tagCodes) {
+            Map<String, String> words = new HashMap<>();
+            for (Map.Entry<String, String> e : dictionary.entrySet()) words.put(e.getValue(), e.getKey());
+            return expandTagKind(input, TAG_DICT, codeTable(words));
+        }
+        String result = input;
+
+        for (Map.Entry<String, String> entry : dictionary.entrySet()) {
+            result = result.replace(wrapCode(entry.getValue()), entry.getKey());
+        }
+
+        return result;
+    }
+
+    private String decompressPatterns(String input) {
+        // Using patternHistory if available; otherwise no-op
+        if (tagCodes) {
+            return patternHistory == null ? input : expandTagKind(input, TAG_PATTERN, codeTable(patternHistory));
+        }
+        String result = input;
+        if (patternHistory != null) {
+            for (Map.Entry<String,String> e : patternHistory.entrySet()) {
+                result = result.replace(wrapCode(e.getKey()), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    private String decompressCharacters(String input) {
+        String result = input;
+        if (charMap != null) {
+            for (Map.Entry<String,String> e : charMap.entrySet()) {
+                result = result.replace(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Performans istatistikleri
+     */
+    public CompressionStats getStats(String original, String compressed) {
+        double ratio = (double) compressed.length() / original.length() * 100;
+        return new CompressionStats(original.length(), compressed.length(), ratio);
+    }
+
+    public static class CompressionStats {
+        public final int originalSize;
+        public final int compressedSize;
+        public final double compressionRatio;
+
+        public CompressionStats(int original, int compressed, double ratio) {
+            this.originalSize = original;
+            this.compressedSize = compressed;
+            this.compressionRatio = ratio;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Original: %d bytes, Compressed: %d bytes, Ratio: %.2f%%",
+                              originalSize, compressedSize, compressionRatio);
+        }
+    }
+
+    // ===== Decompression header cache =====
+
+    // true when the cache held this header; state is then the cached (read-only) containers
+    private boolean restoreCachedHeader(Object key) {
+        if (headerCache == null) return false;
+        HeaderState cached = headerCache.get(key);
+        if (cached == null) return false;
+        resetState();
+        cached.restore(this);
+        return true;
+    }
+
+    private void cacheParsedHeader(Object key, int weight) {
+        if (headerCache == null) return;
+        uuids.materialize(); // get() must not write once the column is shared
+        headerCache.put(key, new HeaderState(this), weight);
+        headerShared = true;
+    }
+
+    /**
+     * Ayrıştırılmış header durumu. Kaptaki liste/haritalar paylaşılır ve yalnız okunur;
+     * sahibi SmartRLE resetState'te onları temizlemek yerine yenilerini ayırır.
+     */
+    private static final class HeaderState {
+        private final Map<String, String> dict;
+        private final Map<String, String> patternHistory;
+        private final Map<String, String> lineTemplates;
+        private final Map<String, String> charMap;
+        private final List<String> timestamps;
+        private final List<String> apacheTimestamps;
+        private final long apacheTsBaseEpoch;
+        private final IntList apacheTsDeltas;
+        private final String apacheTsOffset;
+        private final List<String> methods;
+        private final List<String> paths;
+        private final List<String> statuses;
+        private final List<String> referers;
+        private final List<String> userAgents;
+        private final IpColumn ips;
+        private final UuidColumn uuids;
+        private final NumericIdColumn ids;
+        private final String formatName;
+        private final List<String> fmtTemplates;
+        private final Map<String, List<String>> fmtColumns;
+        private final String eol;
+        private final boolean hasTrailingEol;
+        private final String stagePlan;
+        private final boolean opcodeRuns;
+        private final boolean tagCodes;
+        private final long chunkBase;
+        private final int chunkBaseWindow;
+        private final String dataCoding;
+
+        HeaderState(SmartRLE r) {
+            dict = r.headerDict;
+            patternHistory = r.patternHistory;
+            lineTemplates = r.lineTemplates;
+            charMap = r.charMap;
+            timestamps = r.timestamps;
+            apacheTimestamps = r.apacheTimestamps;
+            apacheTsBaseEpoch = r.apacheTsBaseEpoch;
+            apacheTsDeltas = r.apacheTsDeltas;
+            apacheTsOffset = r.apacheTsOffset;
+            methods = r.methods;
+            paths = r.paths;
+            statuses = r.statuses;
+            referers = r.referers;
+            userAgents = r.userAgents;
+            ips = r.ips;
+            uuids = r.uuids;
+            ids = r.ids;
+            formatName = r.formatName;
+            fmtTemplates = r.fmtTemplates;
+            fmtColumns = r.fmtColumns;
+            eol = r.eol;
+            hasTrailingEol = r.hasTrailingEol;
+            stagePlan = r.stagePlan;
+            opcodeRuns = r.opcodeRuns;
+            tagCodes = r.tagCodes;
+            chunkBase = r.chunkBase;
+            chunkBaseWindow = r.chunkBaseWindow;
+            dataCoding = r.dataCoding;
+        }
+
+        void restore(SmartRLE r) {
+            r.dictionary.putAll(dict);
+            r.headerDict = dict;
+            r.patternHistory = patternHistory;
+            r.lineTemplates = lineTemplates;
+            r.charMap = charMap;
+            r.timestamps = timestamps;
+            r.apacheTimestamps = apacheTimestamps;
+            r.apacheTsBaseEpoch = apacheTsBaseEpoch;
+            r.apacheTsDeltas = apacheTsDeltas;
+            r.apacheTsOffset = apacheTsOffset;
+            r.methods = methods;
+            r.paths = paths;
+            r.statuses = statuses;
+            r.referers = referers;
+            r.userAgents = userAgents;
+            r.ips = ips;
+            r.uuids = uuids;
+            r.ids = ids;
+            r.formatName = formatName;
+            r.fmtTemplates = fmtTemplates;
+            r.fmtColumns = fmtColumns;
+            r.eol = eol;
+            r.hasTrailingEol = hasTrailingEol;
+            r.stagePlan = stagePlan;
+            r.opcodeRuns = opcodeRuns;
+            r.tagCodes = tagCodes;
+            r.chunkBase = chunkBase;
+            r.chunkBaseWindow = chunkBaseWindow;
+            r.dataCoding = dataCoding;
+            r.headerShared = true;
+        }
+    }
+
+    /**
+     * Açma tarafı LRU header önbelleği. Anahtar header içeriğidir (metin ya da deflate edilmiş baytlar);
+     * eşitlik tam içerikle kontrol edildiğinden hash çakışması yanlış duruma yol açmaz.
+     * Girdi sayısı ve toplam header ağırlığı (ham header karakteri) ile sınırlıdır. Thread-safe.
+     */
+    public static final class HeaderCache {
+        public static final int DEFAULT_MAX_ENTRIES = 64;
+        public static final long DEFAULT_MAX_WEIGHT = 16L * 1024 * 1024;
+        private static final HeaderCache SHARED = new HeaderCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+
+        private final int maxEntries;
+        private final long maxWeight;
+        private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        private static final class Entry {
+            final HeaderState state;
+            final int weight;
+
+            Entry(HeaderState state, int weight) {
+                this.state = state;
+                this.weight = weight;
+            }
+        }
+
+        public HeaderCache(int maxEntries, long maxWeight) {
+            if (maxEntries <= 0 || maxWeight <= 0) throw new IllegalArgumentException("cache bounds must be positive");
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+
+        /**
+         * Varsayılan süreç geneli önbellek (64 header / 16M karakter)
+         */
+        public static HeaderCache shared() {
+            return SHARED;
+        }
+
+        synchronized HeaderState get(Object key) {
+            Entry e = entries.get(key);
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return e.state;
+        }
+
+        synchronized void put(Object key, HeaderState state, int entryWeight) {
+            if (entryWeight > maxWeight) return; // would evict everything else for a single use
+            Entry old = entries.put(key, new Entry(state, entryWeight));
+            if (old != null) weight -= old.weight;
+            weight += entryWeight;
+            Iterator<Entry> it = entries.values().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+                weight -= it.next().weight;
+                it.remove();
+                evictions++;
+            }
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        public synchronized long getHits() { return hits; }
+        public synchronized long getMisses() { return misses; }
+        public synchronized long getEvictions() { return evictions; }
+        public synchronized int size() { return entries.size(); }
+        public synchronized long getWeight() { return weight; }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("headerCache size=%d weight=%d hits=%d misses=%d evictions=%d",
+                entries.size(), weight, hits, misses, evictions);
+        }
+    }
+
+    /**
+     * Aşama ara tamponları için geri dönüştürülen StringBuilder havuzu (thread-safe, sınırlı).
+     * acquire en küçük yeterli tamponu verir; release ile açıkça geri verilir. Geri verilmeyen tampon
+     * (örn. istisna sonrası) sadece GC'ye kalır. maxChars'tan büyük tampon havuzda tutulmaz.
+     */
+    public static final class BufferPool {
+        public static final int DEFAULT_MAX_BUFFERS = 32;
+        public static final long DEFAULT_MAX_CHARS = 64L * 1024 * 1024;
+        private static final BufferPool SHARED = new BufferPool(DEFAULT_MAX_BUFFERS, DEFAULT_MAX_CHARS);
+
+        private final int maxBuffers;
+        private final long maxChars;
+        private final ArrayDeque<StringBuilder> free = new ArrayDeque<>();
+        private long pooledChars;
+        private long reuses;
+        private long allocations;
+        private long drops;
+
+        public BufferPool(int maxBuffers, long maxChars) {
+            if (maxBuffers <= 0 || maxChars <= 0) throw new IllegalArgumentException("pool bounds must be positive");
+            this.maxBuffers = maxBuffers;
+            this.maxChars = maxChars;
+        }
+
+        /**
+         * Varsayılan süreç geneli havuz (32 tampon / 64M karakter kapasite)
+         */
+        public static BufferPool shared() {
+            return SHARED;
+        }
+
+        /**
+         * Boş, en az minCapacity kapasiteli tampon (havuzda yoksa yeni)
+         */
+        public StringBuilder acquire(int minCapacity) {
+            synchronized (this) {
+                StringBuilder best = null;
+                for (StringBuilder sb : free) {
+                    if (sb.capacity() >= minCapacity && (best == null || sb.capacity() < best.capacity())) best = sb;
+                }
+                if (best != null) {
+                    free.removeFirstOccurrence(best);
+                    pooledChars -= best.capacity();
+                    reuses++;
+                    return best;
+                }
+                allocations++;
+            }
+            return new StringBuilder(minCapacity);
+        }
+
+        /**
+         * Tamponu havuza geri verir; tampon bundan sonra kullanılmamalı
+         */
+        public synchronized void release(StringBuilder sb) {
+            int capacity = sb.capacity();
+            if (capacity > maxChars) {
+                drops++;
+                return;
+            }
+            for (StringBuilder b : free) {
+                if (b == sb) return; // released twice: keep a single copy so it is never handed out to two users
+            }
+            sb.setLength(0);
+            free.addFirst(sb);
+            pooledChars += capacity;
+            while (free.size() > maxBuffers || pooledChars > maxChars) {
+                pooledChars -= free.removeLast().capacity();
+                drops++;
+            }
+        }
+
+        public synchronized void clear() {
+            free.clear();
+            pooledChars = 0;
+        }
+
+        public synchronized long getReuses() { return reuses; }
+        public synchronized long getAllocations() { return allocations; }
+        public synchronized long getDrops() { return drops; }
+        public synchronized int size() { return free.size(); }
+        public synchronized long getPooledChars() { return pooledChars; }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("bufferPool size=%d chars=%d reuses=%d allocations=%d drops=%d",
+                free.size(), pooledChars, reuses, allocations, drops);
+        }
+    }
+
+    // ===== Hot-path metrics (opt-in) =====
+
+    /**
+     * Çağrı başına metrik toplama (varsayılan: kapalı). Kapalıyken aşama kancaları nanoTime bile çağırmaz.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+        if (!enabled) this.metrics = null;
+        if (enabled) MetricsRegistry.INSTANCE.ensureRegistered();
+    }
+
+    /**
+     * Son compress/decompress çağrısının metrikleri (metrikler kapalıysa null)
+     */
+    public CompressionMetrics getLastMetrics() {
+        return metrics;
+    }
+
+    private void beginMetrics(String operation) {
+        currentOperation = operation;
+        CompressionEvent event = new CompressionEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.begin();
+            jfrOperation = event;
+        } else {
+            jfrOperation = null;
+        }
+        if (!metricsEnabled) {
+            metrics = null;
+            return;
+        }
+        metrics = new CompressionMetrics(operation);
+        metrics.allocatedBytes = -threadAllocatedBytes();
+        metrics.startNanos = System.nanoTime();
+    }
+
+    // input/output are the call's String or byte[] (null when there is none); sized only when observed
+    private void endMetrics(Object input, Object output) {
+        if (jfrOperation != null) {
+            CompressionEvent event = jfrOperation;
+            jfrOperation = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.inputBytes = byteLength(input);
+                event.outputBytes = byteLength(output);
+                Object text = "compress".equals(event.operation) ? input : output;
+                event.lineCount = text instanceof String ? countLines((String) text) : 0;
+                event.stagePlan = stagePlan;
+                event.dataCoding = dataCoding;
+                event.ipCount = ips.size();
+                event.pathCount = paths.size();
+                event.userAgentCount = userAgents.size();
+                event.patternCount = patternHistory.size();
+                event.lineTemplateCount = lineTemplates.size();
+                event.commit();
+            }
+        }
+        if (metrics == null) return;
+        metrics.totalNanos = System.nanoTime() - metrics.startNanos;
+        long allocated = threadAllocatedBytes();
+        metrics.allocatedBytes = allocated < 0 ? -1L : metrics.allocatedBytes + allocated;
+        metrics.inputBytes = byteLength(input);
+        metrics.outputBytes = byteLength(output);
+        metrics.stagePlan = stagePlan;
+        metrics.dataCoding = dataCoding;
+        metrics.mapPaths = mapPaths;
+        metrics.mapReferers = mapReferers;
+        metrics.mapUserAgents = mapUserAgents;
+        metrics.cardinalities.put("IP", ips.size());
+        metrics.cardinalities.put("PATH", paths.size());
+        metrics.cardinalities.put("UA", userAgents.size());
+        metrics.cardinalities.put("REF", referers.size());
+        metrics.cardinalities.put("METH", methods.size());
+        metrics.cardinalities.put("STAT", statuses.size());
+        metrics.cardinalities.put("UUID", uuids.distinctCount());
+        metrics.cardinalities.put("ID", ids.size());
+        metrics.cardinalities.put("TS", timestamps.size());
+        metrics.cardinalities.put("ATS", Math.max(apacheTimestamps.size(), apacheTsDeltas.size()));
+        metrics.cardinalities.put("PAT", patternHistory.size());
+        metrics.cardinalities.put("LCODE", lineTemplates.size());
+        metrics.cardinalities.put("FTPL", fmtTemplates.size());
+        MetricsRegistry.INSTANCE.record(metrics);
+    }
+
+    private static long byteLength(Object value) {
+        if (value instanceof byte[]) return ((byte[]) value).length;
+        if (value instanceof String) return utf8Length((String) value);
+        return 0L;
+    }
+
+    private static int countLines(String text) {
+        int lines = text.isEmpty() ? 0 : 1;
+        for (int i = text.indexOf('\n'); i >= 0 && i < text.length() - 1; i = text.indexOf('\n', i + 1)) lines++;
+        return lines;
+    }
+
+    private long stageStart() {
+        // stages never nest within one instance, so a single in-flight event suffices
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            jfrStage = event;
+        }
+        return metrics == null ? 0L : System.nanoTime();
+    }
+
+    // in/out may be null when a stage has no meaningful text input/output
+    private void stageEnd(String stage, long start, String in, String out) {
+        if (jfrStage != null) {
+            StageEvent event = jfrStage;
+            jfrStage = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage;
+                event.operation = currentOperation;
+                event.bytesIn = in == null ? 0L : utf8Length(in);
+                event.bytesOut = out == null ? 0L : utf8Length(out);
+                event.commit();
+            }
+        }
+        if (metrics == null) return;
+        long nanos = System.nanoTime() - start;
+        metrics.recordStage(stage, nanos, in == null ? 0L : utf8Length(in), out == null ? 0L : utf8Length(out));
+    }
+
+    private static long threadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Tek bir compress/decompress çağrısının metrikleri (baytlar UTF-8)
+     */
+    public static class CompressionMetrics {
+        public final String operation;
+        public long totalNanos;
+        public long inputBytes;
+        public long outputBytes;
+        public long allocatedBytes = -1L;           // thread-allocated bytes, -1 if unsupported
+        public String stagePlan;
+        public String dataCoding;
+        public final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+        public final Map<String, Integer> headerSectionBytes = new LinkedHashMap<>();
+        public final Map<String, Integer> cardinalities = new LinkedHashMap<>();
+        // guardrails
+        public boolean guardrailMappingsDisabled;   // 8 KB header guardrail tripped in this call
+        public boolean mapPaths;
+        public boolean mapReferers;
+        public boolean mapUserAgents;
+        public int pathCapHits;                     // paths left unmapped because MAX_PATHS was reached
+        public int refererCapHits;
+        public int userAgentCapHits;
+        long startNanos;
+
+        CompressionMetrics(String operation) {
+            this.operation = operation;
+        }
+
+        void recordStage(String stage, long nanos, long bytesIn, long bytesOut) {
+            StageMetrics m = stages.computeIfAbsent(stage, StageMetrics::new);
+            m.nanos += nanos;
+            m.bytesIn += bytesIn;
+            m.bytesOut += bytesOut;
+        }
+
+        // header line sizes grouped by their "KEY:" prefix (IP, PATH, UA, LCODE, PAT, ...)
+        void recordHeaderSections(CharSequence header) {
+            int start = 0;
+            int n = header.length();
+            while (start < n) {
+                int end = start;
+                while (end < n && header.charAt(end) != '\n') end++;
+                int colon = start;
+                while (colon < end && header.charAt(colon) != ':') colon++;
+                if (colon < end) {
+                    String key = header.subSequence(start, colon).toString();
+                    headerSectionBytes.merge(key, end - start + 1, Integer::sum);
+                }
+                start = end + 1;
+            }
+        }
+
+        public double throughputMBps() {
+            return totalNanos == 0 ? 0.0 : (inputBytes / 1_000_000.0) / (totalNanos / 1_000_000_000.0);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%s: %d -> %d bytes in %.2f ms (%.1f MB/s), plan=%s, alloc=%d%n",
+                operation, inputBytes, outputBytes, totalNanos / 1_000_000.0, throughputMBps(), stagePlan, allocatedBytes));
+            for (StageMetrics m : stages.values()) sb.append("  ").append(m).append(String.format("%n"));
+            if (!headerSectionBytes.isEmpty()) sb.append("  header: ").append(headerSectionBytes).append(String.format("%n"));
+            sb.append("  cardinalities: ").append(cardinalities);
+            if (guardrailMappingsDisabled || pathCapHits > 0 || refererCapHits > 0 || userAgentCapHits > 0) {
+                sb.append(String.format("%n  guardrails: mappingsDisabled=%b pathCap=%d refCap=%d uaCap=%d",
+                    guardrailMappingsDisabled, pathCapHits, refererCapHits, userAgentCapHits));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static class StageMetrics {
+        public final String stage;
+        public long nanos;
+        public long bytesIn;
+        public long bytesOut;
+
+        StageMetrics(String stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %9.3f ms %10d -> %10d bytes", stage, nanos / 1_000_000.0, bytesIn, bytesOut);
+        }
+    }
+
+    /**
+     * JMX görünümü: "SmartRLE:type=Metrics" altında tüm örnekler için kümülatif sayaçlar
+     */
+    public interface MetricsMXBean {
+        long getCompressCalls();
+        long getDecompressCalls();
+        long getCompressInputBytes();
+        long getCompressOutputBytes();
+        long getCompressNanos();
+        long getDecompressNanos();
+        long getAllocatedBytes();
+        long getGuardrailTrips();
+        Map<String, Long> getStageNanos();
+        long getHeaderCacheHits();
+        long getHeaderCacheMisses();
+        long getHeaderCacheEvictions();
+        int getHeaderCacheSize();
+    }
+
+    private static final class MetricsRegistry implements MetricsMXBean {
+        static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+        private final java.util.concurrent.atomic.AtomicLong compressCalls = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong decompressCalls = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong compressIn = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong compressOut = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong compressNanos = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong decompressNanos = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong allocated = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong guardrailTrips = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.ConcurrentHashMap<String, java.util.concurrent.atomic.LongAdder> stageNanos =
+            new java.util.concurrent.ConcurrentHashMap<>();
+        private volatile boolean registered;
+
+        void ensureRegistered() {
+            if (registered) return;
+            synchronized (this) {
+                if (registered) return;
+                try {
+                    javax.management.ObjectName name = new javax.management.ObjectName("SmartRLE:type=Metrics");
+                    javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+                    if (!server.isRegistered(name)) server.registerMBean(this, name);
+                } catch (Exception ignore) {
+                    // JMX unavailable: per-call metrics still work
+                }
+                registered = true;
+            }
+        }
+
+        void record(CompressionMetrics m) {
+            if ("compress".equals(m.operation)) {
+                compressCalls.incrementAndGet();
+                compressIn.addAndGet(m.inputBytes);
+                compressOut.addAndGet(m.outputBytes);
+                compressNanos.addAndGet(m.totalNanos);
+            } else if ("decompress".equals(m.operation)) {
+                decompressCalls.incrementAndGet();
+                decompressNanos.addAndGet(m.totalNanos);
+            }
+            if (m.allocatedBytes > 0) allocated.addAndGet(m.allocatedBytes);
+            if (m.guardrailMappingsDisabled || m.pathCapHits > 0 || m.refererCapHits > 0 || m.userAgentCapHits > 0) {
+                guardrailTrips.incrementAndGet();
+            }
+            for (StageMetrics s : m.stages.values()) {
+                stageNanos.computeIfAbsent(m.operation + "." + s.stage, k -> new java.util.concurrent.atomic.LongAdder()).add(s.nanos);
+            }
+        }
+
+        @Override public long getCompressCalls() { return compressCalls.get(); }
+        @Override public long getDecompressCalls() { return decompressCalls.get(); }
+        @Override public long getCompressInputBytes() { return compressIn.get(); }
+        @Override public long getCompressOutputBytes() { return compressOut.get(); }
+        @Override public long getCompressNanos() { return compressNanos.get(); }
+        @Override public long getDecompressNanos() { return decompressNanos.get(); }
+        @Override public long getAllocatedBytes() { return allocated.get(); }
+        @Override public long getGuardrailTrips() { return guardrailTrips.get(); }
+        @Override public long getHeaderCacheHits() { return HeaderCache.shared().getHits(); }
+        @Override public long getHeaderCacheMisses() { return HeaderCache.shared().getMisses(); }
+        @Override public long getHeaderCacheEvictions() { return HeaderCache.shared().getEvictions(); }
+        @Override public int getHeaderCacheSize() { return HeaderCache.shared().size(); }
+
+        @Override
+        public Map<String, Long> getStageNanos() {
+            Map<String, Long> out = new TreeMap<>();
+            stageNanos.forEach((k, v) -> out.put(k, v.sum()));
+            return out;
+        }
+    }
+
+    // ===== JFR events =====
+
+    /**
+     * JFR: compress/decompress/aggregate çağrısı
+     */
+    @jdk.jfr.Name("smartrle.Operation")
+    @jdk.jfr.Label("SmartRLE Operation")
+    @jdk.jfr.Category("SmartRLE")
+    @jdk.jfr.StackTrace(false)
+    static final class CompressionEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Operation") String operation;
+        @jdk.jfr.Label("Input Bytes") @jdk.jfr.DataAmount long inputBytes;
+        @jdk.jfr.Label("Output Bytes") @jdk.jfr.DataAmount long outputBytes;
+        @jdk.jfr.Label("Line Count") int lineCount;
+        @jdk.jfr.Label("Stage Plan") String stagePlan;
+        @jdk.jfr.Label("Data Coding") String dataCoding;
+        @jdk.jfr.Label("IP Dictionary Size") int ipCount;
+        @jdk.jfr.Label("Path Dictionary Size") int pathCount;
+        @jdk.jfr.Label("User-Agent Dictionary Size") int userAgentCount;
+        @jdk.jfr.Label("Pattern Count") int patternCount;
+        @jdk.jfr.Label("Line Template Count") int lineTemplateCount;
+    }
+
+    /**
+     * JFR: tek bir pipeline aşaması
+     */
+    @jdk.jfr.Name("smartrle.Stage")
+    @jdk.jfr.Label("SmartRLE Stage")
+    @jdk.jfr.Category("SmartRLE")
+    @jdk.jfr.StackTrace(false)
+    static final class StageEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Operation") String operation;
+        @jdk.jfr.Label("Stage") String stage;
+        @jdk.jfr.Label("Bytes In") @jdk.jfr.DataAmount long bytesIn;
+        @jdk.jfr.Label("Bytes Out") @jdk.jfr.DataAmount long bytesOut;
+    }
+
+    /**
+     * JFR: header oluşturma/ayrıştırma
+     */
+    @jdk.jfr.Name("smartrle.Header")
+    @jdk.jfr.Label("SmartRLE Header")
+    @jdk.jfr.Category("SmartRLE")
+    @jdk.jfr.StackTrace(false)
+    static final class HeaderEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Direction") String direction;
+        @jdk.jfr.Label("Header Chars") int headerChars;
+        @jdk.jfr.Label("Guardrail Tripped") boolean guardrailTripped;
+        @jdk.jfr.Label("IP Dictionary Size") int ipCount;
+        @jdk.jfr.Label("Path Dictionary Size") int pathCount;
+        @jdk.jfr.Label("User-Agent Dictionary Size") int userAgentCount;
+        @jdk.jfr.Label("Pattern Count") int patternCount;
+        @jdk.jfr.Label("Line Template Count") int lineTemplateCount;
+    }
+
+    /**
+     * JFR: eşiği aşan tek satır (varsayılan 10 ms; kayıt ayarlarından değiştirilebilir)
+     */
+    @jdk.jfr.Name("smartrle.SlowLine")
+    @jdk.jfr.Label("SmartRLE Slow Line")
+    @jdk.jfr.Category("SmartRLE")
+    @jdk.jfr.Threshold("10 ms")
+    static final class SlowLineEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Stage") String stage;
+        @jdk.jfr.Label("Line Index") int lineIndex;
+        @jdk.jfr.Label("Line Chars") int lineChars;
+        @jdk.jfr.Label("Output Chars") int outputChars;
+    }
+
+    // ===== Aggregations over compressed columns =====
+
+    /**
+     * Sıkıştırılmış veri üzerinde doğrudan gruplama (metin yeniden kurulmadan)
+     *
+     * STAT/METH/PATH/UA sözlük kodlarına göre sayım ve ATSDELTA üzerinden zaman kovaları üretir.
+     * Yer tutucular (__STATi__ vb.) token-blok akışında taranır; denormalize ve EOL adımları atlanır.
+     */
+    public LogAggregates aggregate(String compressed, int bucketSeconds) {
+        if (bucketSeconds <= 0) throw new IllegalArgumentException("bucketSeconds must be > 0");
+        beginMetrics("aggregate");
+        LogAggregates result = aggregateText(compressed, bucketSeconds);
+        endMetrics(compressed, null);
+        return result;
+    }
+
+    private LogAggregates aggregateText(String compressed, int bucketSeconds) {
+        resetState();
+        if (compressed == null || compressed.isEmpty()) {
+            return new LogAggregates(methods, statuses, paths, userAgents, 0L, bucketSeconds, 0);
+        }
+        int headerIdx = compressed.indexOf("\n[DATA]\n");
+        if (headerIdx < 0) {
+            throw new IllegalArgumentException("Not a SmartRLE log container");
+        }
+        parseHeader(compressed.substring(0, headerIdx));
+        String data = compressed.substring(headerIdx + "\n[DATA]\n".length());
+        if (!DATA_STORED.equals(dataCoding)) {
+            data = unwrapTextData(data);
+        }
+        return aggregateSegment(data, bucketSeconds);
+    }
+
+    public LogAggregates aggregate(String compressed) {
+        return aggregate(compressed, 60);
+    }
+
+    /**
+     * İkili konteyner üzerinde gruplama (bkz. compressToBytes)
+     */
+    public LogAggregates aggregate(byte[] container, int bucketSeconds) {
+        if (bucketSeconds <= 0) throw new IllegalArgumentException("bucketSeconds must be > 0");
+        resetState();
+        if (container == null || container.length == 0) {
+            return new LogAggregates(methods, statuses, paths, userAgents, 0L, bucketSeconds, 0);
+        }
+        beginMetrics("aggregate");
+        LogAggregates result = aggregateSegment(readBinaryContainer(container), bucketSeconds);
+        endMetrics(container, null);
+        return result;
+    }
+
+    // header state already parsed; data is the decoded DATA text (or the raw input when stored)
+    private LogAggregates aggregateSegment(String data, int bucketSeconds) {
+        String blocks;
+        if (DATA_STORED.equals(dataCoding)) {
+            // stored block carries no columns: normalize it here, then count as plain lines
+            resetState();
+            tagCodes = true;
+            blocks = preprocess(data);
+            stagePlan = "";
+        } else {
+            blocks = decodeToTokenBlocks(data);
+        }
+
+        // per-line ATS index -> epoch seconds (base+delta, or fallback list)
+        long[] atsEpoch = resolveApacheEpochs();
+        long minEpoch = Long.MAX_VALUE;
+        long maxEpoch = Long.MIN_VALUE;
+        for (long e : atsEpoch) {
+            if (e < minEpoch) minEpoch = e;
+            if (e > maxEpoch) maxEpoch = e;
+        }
+        long base = 0L;
+        int bucketCount = 0;
+        if (atsEpoch.length > 0) {
+            base = Math.floorDiv(minEpoch, bucketSeconds) * bucketSeconds;
+            bucketCount = (int) ((maxEpoch - base) / bucketSeconds) + 1;
+        }
+        LogAggregates agg = new LogAggregates(methods, statuses, paths, userAgents, base, bucketSeconds, bucketCount);
+
+        boolean plainLines = !stageEnabled(STAGE_TOKEN_BLOCK);
+        if (stageEnabled(STAGE_CHUNK) || chunkBase >= 0) {
+            // chunk refs copy whole lines: expand them first, then count plain lines
+            if (!plainLines) blocks = opcodeRuns ? decodeLineRuns(blocks) : decompressTokenBlockRLE(blocks);
+            blocks = expandChunks(blocks);
+            plainLines = true;
+        }
+        int i = 0;
+        int n = blocks.length();
+        if (plainLines) {
+            // plan skipped token blocks: plain '\n'-separated normalized lines
+            while (i < n) {
+                int end = blocks.indexOf('\n', i);
+                if (end < 0) end = n;
+                scanPlaceholders(blocks, i, end, 1, atsEpoch, agg);
+                i = end + 1;
+            }
+            return agg;
+        }
+        if (opcodeRuns) {
+            // walk [OP_RUN n] line; tokens without materializing lines (escapes never touch placeholders)
+            int[] pos = new int[1];
+            while (i < n) {
+                int count = 1;
+                if (blocks.charAt(i) == OP_RUN) {
+                    pos[0] = i + 1;
+                    count = readRunLength(blocks, pos);
+                    i = pos[0];
+                }
+                int end = i;
+                while (end < n && blocks.charAt(end) != ';') end += blocks.charAt(end) == '\\' ? 2 : 1;
+                end = Math.min(end, n);
+                // the empty token after the final '\n' is the trailing EOL, not a line
+                if (end > i || end + 1 < n) scanPlaceholders(blocks, i, end, count, atsEpoch, agg);
+                i = end + 1;
+            }
+            return agg;
+        }
+        // legacy: walk S...; / B<n>:...; codes without materializing lines
+        while (i < n) {
+            int end = blocks.indexOf(';', i);
+            if (end < 0) end = n;
+            char kind = blocks.charAt(i);
+            if (kind == 'S') {
+                scanPlaceholders(blocks, i + 1, end, 1, atsEpoch, agg);
+            } else if (kind == 'B') {
+                int colonIdx = blocks.indexOf(':', i + 1);
+                if (colonIdx > 0 && colonIdx < end) {
+                    int count = parseIntRange(blocks, i + 1, colonIdx);
+                    scanPlaceholders(blocks, colonIdx + 1, end, count, atsEpoch, agg);
+                }
+            }
+            i = end + 1;
+        }
+        return agg;
+    }
+
+    private long[] resolveApacheEpochs() {
+        if (apacheTsBaseEpoch >= 0 && apacheTsOffset != null && apacheTsDeltas != null && !apacheTsDeltas.isEmpty()) {
+            long[] out = new long[apacheTsDeltas.size()];
+            for (int k = 0; k < out.length; k++) out[k] = apacheTsBaseEpoch + apacheTsDeltas.get(k);
+            return out;
+        }
+        long[] out = new long[apacheTimestamps.size()];
+        for (int k = 0; k < out.length; k++) {
+            String full = apacheTimestamps.get(k);
+            try {
+                out[k] = ZonedDateTime.parse(full.substring(1, full.length() - 1), APACHE_FMT).toEpochSecond();
+            } catch (Exception ignore) {
+                out[k] = 0L;
+            }
+        }
+        return out;
+    }
+
+    // Counts __METHi__/__STATi__/__PATHi__/__UAi__/__ATSi__ in [from,to) with the given multiplicity
+    private void scanPlaceholders(String s, int from, int to, int mult, long[] atsEpoch, LogAggregates agg) {
+        agg.lines += mult;
+        if (tagCodes) {
+            scanTags(s, from, to, mult, atsEpoch, agg);
+            return;
+        }
+        int i = s.indexOf("__", from);
+        while (i >= 0 && i + 2 < to) {
+            int p = i + 2;
+            int kindStart = p;
+            while (p < to && s.charAt(p) >= 'A' && s.charAt(p) <= 'Z') p++;
+            int kindLen = p - kindStart;
+            int digitStart = p;
+            while (p < to && s.charAt(p) >= '0' && s.charAt(p) <= '9') p++;
+            if (kindLen == 0 || p == digitStart || p + 2 > to || s.charAt(p) != '_' || s.charAt(p + 1) != '_') {
+                i = s.indexOf("__", i + 1);
+                continue;
+            }
+            int idx = parseIntRange(s, digitStart, p);
+            if (kindLen == 4 && s.startsWith("STAT", kindStart)) {
+                if (idx < agg.statusCounts.length) agg.statusCounts[idx] += mult;
+            } else if (kindLen == 4 && s.startsWith("PATH", kindStart)) {
+                if (idx < agg.pathCounts.length) agg.pathCounts[idx] += mult;
+            } else if (kindLen == 2 && s.startsWith("UA", kindStart)) {
+                if (idx < agg.userAgentCounts.length) agg.userAgentCounts[idx] += mult;
+            } else if (kindLen == 4 && s.startsWith("METH", kindStart)) {
+                if (idx < agg.methodCounts.length) agg.methodCounts[idx] += mult;
+            } else if (kindLen == 3 && s.startsWith("ATS", kindStart)) {
+                if (idx < atsEpoch.length) {
+                    agg.timeBuckets[(int) ((atsEpoch[idx] - agg.bucketBaseEpoch) / agg.bucketSeconds)] += mult;
+                }
+            }
+            i = s.indexOf("__", p + 2);
+        }
+    }
+
+    // CODES:TAG form of scanPlaceholders (lines already counted)
+    private static void scanTags(String s, int from, int to, int mult, long[] atsEpoch, LogAggregates agg) {
+        int[] pos = new int[1];
+        int t = s.indexOf(TAG, from);
+        while (t >= 0 && t + 1 < to) {
+            char kind = s.charAt(t + 1);
+            if (kind == TAG) {
+                t = s.indexOf(TAG, t + 2);
+                continue;
+            }
+            pos[0] = t + 2;
+            int idx = readTagIndex(s, pos);
+            if (kind == TAG_STATUS) {
+                if (idx < agg.statusCounts.length) agg.statusCounts[idx] += mult;
+            } else if (kind == TAG_PATH) {
+                if (idx < agg.pathCounts.length) agg.pathCounts[idx] += mult;
+            } else if (kind == TAG_USER_AGENT) {
+                if (idx < agg.userAgentCounts.length) agg.userAgentCounts[idx] += mult;
+            } else if (kind == TAG_METHOD) {
+                if (idx < agg.methodCounts.length) agg.methodCounts[idx] += mult;
+            } else if (kind == TAG_APACHE_TS) {
+                if (idx < atsEpoch.length) {
+                    agg.timeBuckets[(int) ((atsEpoch[idx] - agg.bucketBaseEpoch) / agg.bucketSeconds)] += mult;
+                }
+            }
+            t = s.indexOf(TAG, pos[0]);
+        }
+    }
+
+    private static int parseIntRange(String s, int from, int to) {
+        int v = 0;
+        for (int k = from; k < to; k++) {
+            char c = s.charAt(k);
+            if (c < '0' || c > '9') break;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /**
+     * Gruplama sonuçları: sayaçlar sözlük koduna göre indekslenir (counts[i] -> dictionary.get(i))
+     */
+    public static class LogAggregates {
+        public final List<String> methods;
+        public final List<String> statuses;
+        public final List<String> paths;
+        public final List<String> userAgents;
+        public final int[] methodCounts;
+        public final int[] statusCounts;
+        public final int[] pathCounts;
+        public final int[] userAgentCounts;
+        public final long bucketBaseEpoch;
+        public final int bucketSeconds;
+        public final int[] timeBuckets;
+        public int lines;
+
+        LogAggregates(List<String> methods, List<String> statuses, List<String> paths, List<String> userAgents,
+                      long bucketBaseEpoch, int bucketSeconds, int bucketCount) {
+            this.methods = new ArrayList<>(methods);
+            this.statuses = new ArrayList<>(statuses);
+            this.paths = new ArrayList<>(paths);
+            this.userAgents = new ArrayList<>(userAgents);
+            this.methodCounts = new int[methods.size()];
+            this.statusCounts = new int[statuses.size()];
+            this.pathCounts = new int[paths.size()];
+            this.userAgentCounts = new int[userAgents.size()];
+            this.bucketBaseEpoch = bucketBaseEpoch;
+            this.bucketSeconds = bucketSeconds;
+            this.timeBuckets = new int[bucketCount];
+        }
+
+        public Map<String, Integer> statusHistogram() {
+            return toMap(statuses, statusCounts);
+        }
+
+        public List<Map.Entry<String, Integer>> topPaths(int limit) {
+            return top(paths, pathCounts, limit);
+        }
+
+        public List<Map.Entry<String, Integer>> topUserAgents(int limit) {
+            return top(userAgents, userAgentCounts, limit);
+        }
+
+        private static Map<String, Integer> toMap(List<String> keys, int[] counts) {
+            Map<String, Integer> out = new LinkedHashMap<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) out.merge(keys.get(i), counts[i], Integer::sum);
+            }
+            return out;
+        }
+
+        private static List<Map.Entry<String, Integer>> top(List<String> keys, int[] counts, int limit) {
+            List<Map.Entry<String, Integer>> out = new ArrayList<>(toMap(keys, counts).entrySet());
+            out.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+            return out.size() > limit ? new ArrayList<>(out.subList(0, limit)) : out;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Lines: %d, Statuses: %s, Top paths: %s, Buckets: %d x %ds",
+                              lines, statusHistogram(), topPaths(5), timeBuckets.length, bucketSeconds);
+        }
+    }
+
+    // ===== Binary token stream scaffolding (phase 1) =====
+    /**
+     * Büyüyebilen int dizisi (kutulama yok)
+     */
+    static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int get(int i) {
+            if (i >= size) throw new IndexOutOfBoundsException(i + " >= " + size);
+            return values[i];
+        }
+
+        int size() { return size; }
+        boolean isEmpty() { return size == 0; }
+        void clear() { size = 0; }
+
+        void appendJoined(StringBuilder sb) {
+            for (int i = 0; i < size; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(values[i]);
+            }
+        }
+
+        // comma-separated decimal ints; malformed items are skipped like the old Integer.parseInt path
+        static IntList parse(CharSequence s, int from) {
+            IntList out = new IntList();
+            int n = s.length();
+            int i = from;
+            while (i < n) {
+                int end = i;
+                while (end < n && s.charAt(end) != ',') end++;
+                long v = 0;
+                boolean neg = false, ok = end > i;
+                int k = i;
+                while (k < end && s.charAt(k) == ' ') k++;
+                if (k < end && (s.charAt(k) == '-' || s.charAt(k) == '+')) { neg = s.charAt(k) == '-'; k++; }
+                if (k == end) ok = false;
+                for (; k < end && ok; k++) {
+                    char c = s.charAt(k);
+                    if (c == ' ') continue;
+                    if (c < '0' || c > '9') { ok = false; break; }
+                    v = v * 10 + (c - '0');
+                    if (v > Integer.MAX_VALUE + 1L) ok = false;
+                }
+                if (ok) {
+                    v = neg ? -v : v;
+                    if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) out.add((int) v);
+                }
+                i = end + 1;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Büyüyebilen long dizisi (kutulama yok)
+     */
+    static final class LongList {
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        long get(int i) {
+            if (i >= size) throw new IndexOutOfBoundsException(i + " >= " + size);
+            return values[i];
+        }
+
+        int size() { return size; }
+        void clear() { size = 0; }
+    }
+
+    /**
+     * Sıkıştırılmış satır sütunu: header'a kutulama ve ara String olmadan yazılır
+     */
+    interface PackedColumn {
+        void appendJoined(StringBuilder sb);
+    }
+
+    /**
+     * IPv4 sütunu: kanonik adresler tek int; baştaki sıfır / 255 üstü gibi durumlar aynen saklanır
+     */
+    static final class IpColumn extends AbstractList<String> implements PackedColumn {
+        private final IntList packed = new IntList();
+        private final Map<Integer, String> verbatim = new HashMap<>(); // occurrence -> original text
+
+        @Override
+        public boolean add(String ip) {
+            int v = pack(ip);
+            if (v == -1 && !"255.255.255.255".equals(ip)) {
+                verbatim.put(packed.size(), ip);
+            }
+            packed.add(v);
+            return true;
+        }
+
+        @Override
+        public String get(int i) {
+            String raw = verbatim.get(i);
+            if (raw != null) return raw;
+            StringBuilder sb = new StringBuilder(15);
+            appendIp(sb, packed.get(i));
+            return sb.toString();
+        }
+
+        @Override
+        public int size() { return packed.size(); }
+
+        @Override
+        public void clear() {
+            packed.clear();
+            verbatim.clear();
         }
 
-        // reverse RLE
-        data = decompressRLE(data);
+        @Override
+        public void appendJoined(StringBuilder sb) {
+            for (int i = 0; i < packed.size(); i++) {
+                if (i > 0) sb.append(',');
+                String raw = verbatim.isEmpty() ? null : verbatim.get(i);
+                if (raw != null) sb.append(raw);
+                else appendIp(sb, packed.get(i));
+            }
+        }
 
-        // reverse line codes
-        data = decompressLineCoding(data);
+        // -1 doubles as "not packable"; 255.255.255.255 is the only canonical address with that value
+        private static int pack(String ip) {
+            int v = 0, octet = 0, digits = 0, dots = 0;
+            for (int k = 0; k < ip.length(); k++) {
+                char c = ip.charAt(k);
+                if (c == '.') {
+                    if (digits == 0 || dots == 3) return -1;
+                    v = (v << 8) | octet;
+                    octet = 0; digits = 0; dots++;
+                } else if (c >= '0' && c <= '9') {
+                    if (digits > 0 && octet == 0) return -1; // leading zero
+                    octet = octet * 10 + (c - '0');
+                    if (++digits > 3 || octet > 255) return -1;
+                } else {
+                    return -1;
+                }
+            }
+            if (dots != 3 || digits == 0) return -1;
+            return (v << 8) | octet;
+        }
 
-        // reverse patterns
-        data = decompressPatterns(data);
+        private static void appendIp(StringBuilder sb, int v) {
+            sb.append((v >>> 24) & 0xFF).append('.').append((v >>> 16) & 0xFF).append('.')
+              .append((v >>> 8) & 0xFF).append('.').append(v & 0xFF);
+        }
+    }
 
-        // reverse token-block RLE (new)
-        data = decompressTokenBlockRLE(data);
+    /**
+     * Sayısal ID sütunu: baştaki sıfırı olmayan en fazla 18 haneli ID'ler tek long; diğerleri aynen
+     */
+    static final class NumericIdColumn extends AbstractList<String> implements PackedColumn {
+        private final LongList packed = new LongList();
+        private final Map<Integer, String> verbatim = new HashMap<>();
 
-        // reverse token-LZ (debugging: disabled)
-        // data = decompressTokenLZ(data);
+        @Override
+        public boolean add(String id) {
+            long v = pack(id);
+            if (v < 0) verbatim.put(packed.size(), id);
+            packed.add(v);
+            return true;
+        }
 
-        // reverse dictionary
-        for (Map.Entry<String,String> e : dictionary.entrySet()) {
-            data = data.replace(wrapCode(e.getValue()), e.getKey());
+        @Override
+        public String get(int i) {
+            long v = packed.get(i);
+            return v < 0 ? verbatim.get(i) : Long.toString(v);
         }
 
-        String result = data;
+        @Override
+        public int size() { return packed.size(); }
 
-        // denormalize tokens (__TSi__, __IPi__, __UUIDi__, __IDi__)
-        result = denormalize(result);
+        @Override
+        public void clear() {
+            packed.clear();
+            verbatim.clear();
+        }
 
-        // apply original EOL and trailing EOL policy
-        result = applyEol(result);
+        @Override
+        public void appendJoined(StringBuilder sb) {
+            for (int i = 0; i < packed.size(); i++) {
+                if (i > 0) sb.append(',');
+                long v = packed.get(i);
+                if (v < 0) sb.append(verbatim.get(i));
+                else sb.append(v);
+            }
+        }
 
-        return result;
+        private static long pack(String id) {
+            int n = id.length();
+            if (n == 0 || n > 18 || (n > 1 && id.charAt(0) == '0')) return -1L;
+            long v = 0;
+            for (int k = 0; k < n; k++) {
+                char c = id.charAt(k);
+                if (c < '0' || c > '9') return -1L;
+                v = v * 10 + (c - '0');
+            }
+            return v;
+        }
     }
 
-    private String decompressRLE(String input) {
-        StringBuilder out = new StringBuilder();
-        int i = 0;
-        while (i < input.length()) {
-            if (input.startsWith("R:", i)) {
-                int c1 = input.indexOf(':', i + 2);
-                int c2 = input.indexOf(';', i + 3);
-                if (c1 > 0 && c2 > c1) {
-                    String chEnc = input.substring(i + 2, c1);
-                    int count = Integer.parseInt(input.substring(c1 + 1, c2));
-                    char ch = unescapeChar(chEnc);
-                    for (int k = 0; k < count; k++) out.append(ch);
-                    i = c2 + 1;
-                    continue;
+    /**
+     * UUID sütunu: her farklı UUID bir kez iki long olarak; satırlar varint indeksle referans verir
+     *
+     * Header (UUIDC: Base64): varint(farklı) + farklı x 16 bayt (msb, lsb) + büyük harf bayrak bitleri
+     * + varint(geçiş) + geçiş x varint(indeks). Karışık harfli UUID'ler UUIDMIX: satırında aynen saklanır.
+     */
+    static final class UuidColumn extends AbstractList<String> {
+        private final LongList msb = new LongList();
+        private final LongList lsb = new LongList();
+        private final BitSet upper = new BitSet();
+        private final Map<Integer, String> mixed = new HashMap<>();  // distinct -> verbatim text
+        private final Map<String, Integer> distinct = new HashMap<>();
+        private final IntList occurrences = new IntList();
+        private String[] text = new String[0];                      // decode-side cache per distinct
+
+        @Override
+        public boolean add(String uuid) {
+            Integer d = distinct.get(uuid);
+            if (d == null) {
+                d = msb.size();
+                distinct.put(uuid, d);
+                long hi = 0, lo = 0;
+                boolean sawUpper = false, sawLower = false;
+                int nibbles = 0;
+                for (int k = 0; k < uuid.length(); k++) {
+                    char c = uuid.charAt(k);
+                    if (c == '-') continue;
+                    int v = Character.digit(c, 16);
+                    if (c >= 'a' && c <= 'f') sawLower = true;
+                    if (c >= 'A' && c <= 'F') sawUpper = true;
+                    if (nibbles < 16) hi = (hi << 4) | v;
+                    else lo = (lo << 4) | v;
+                    nibbles++;
                 }
+                msb.add(hi);
+                lsb.add(lo);
+                if (sawUpper) upper.set(d);
+                if (sawUpper && sawLower) mixed.put(d, uuid);
             }
-            out.append(input.charAt(i));
-            i++;
+            occurrences.add(d);
+            return true;
         }
-        return out.toString();
-    }
 
-    private String decompressDictionary(String input) {
-        String result = input;
+        @Override
+        public String get(int i) {
+            int d = occurrences.get(i);
+            if (d >= text.length) text = Arrays.copyOf(text, Math.max(d + 1, text.length * 2));
+            String t = text[d];
+            if (t == null) {
+                t = mixed.get(d);
+                if (t == null) t = format(msb.get(d), lsb.get(d), upper.get(d));
+                text[d] = t;
+            }
+            return t;
+        }
 
-        for (Map.Entry<String, String> entry : dictionary.entrySet()) {
-            result = result.replace(wrapCode(entry.getValue()), entry.getKey());
+        @Override
+        public int size() { return occurrences.size(); }
+
+        int distinctCount() { return msb.size(); }
+
+        // fills the decode-side text cache up front so get() is read-only
+        void materialize() {
+            if (text.length < distinctCount()) text = Arrays.copyOf(text, distinctCount());
+            for (int d = 0; d < distinctCount(); d++) {
+                if (text[d] == null) {
+                    String t = mixed.get(d);
+                    text[d] = t != null ? t : format(msb.get(d), lsb.get(d), upper.get(d));
+                }
+            }
         }
 
-        return result;
-    }
+        @Override
+        public void clear() {
+            msb.clear();
+            lsb.clear();
+            upper.clear();
+            mixed.clear();
+            distinct.clear();
+            occurrences.clear();
+            text = new String[0];
+        }
 
-    private String decompressPatterns(String input) {
-        // Using patternHistory if available; otherwise no-op
-        String result = input;
-        if (patternHistory != null) {
-            for (Map.Entry<String,String> e : patternHistory.entrySet()) {
-                result = result.replace(wrapCode(e.getKey()), e.getValue());
+        void appendHeader(StringBuilder h) {
+            if (occurrences.isEmpty()) return;
+            int n = msb.size();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(n * 17 + occurrences.size() * 2 + 8);
+            Varint.writeVarint(out, n);
+            for (int d = 0; d < n; d++) {
+                writeLong(out, msb.get(d));
+                writeLong(out, lsb.get(d));
+            }
+            byte[] flags = Arrays.copyOf(upper.toByteArray(), (n + 7) / 8);
+            out.write(flags, 0, flags.length);
+            Varint.writeVarint(out, occurrences.size());
+            for (int i = 0; i < occurrences.size(); i++) Varint.writeVarint(out, occurrences.get(i));
+            h.append("UUIDC:").append(Base64.getEncoder().encodeToString(out.toByteArray())).append("\n");
+            if (!mixed.isEmpty()) {
+                h.append("UUIDMIX:");
+                boolean first = true;
+                for (Map.Entry<Integer, String> e : new TreeMap<>(mixed).entrySet()) {
+                    if (!first) h.append(',');
+                    h.append(e.getKey()).append('=').append(e.getValue());
+                    first = false;
+                }
+                h.append("\n");
             }
         }
-        return result;
-    }
 
-    private String decompressCharacters(String input) {
-        String result = input;
-        if (charMap != null) {
-            for (Map.Entry<String,String> e : charMap.entrySet()) {
-                result = result.replace(e.getKey(), e.getValue());
+        void parseHeader(String base64) {
+            byte[] in = Base64.getDecoder().decode(base64.trim());
+            int[] pos = {0};
+            int n = Varint.readVarint(in, pos);
+            for (int d = 0; d < n; d++) {
+                msb.add(readLong(in, pos[0]));
+                lsb.add(readLong(in, pos[0] + 8));
+                pos[0] += 16;
             }
+            int flagBytes = (n + 7) / 8;
+            upper.or(BitSet.valueOf(Arrays.copyOfRange(in, pos[0], pos[0] + flagBytes)));
+            pos[0] += flagBytes;
+            int occ = Varint.readVarint(in, pos);
+            for (int i = 0; i < occ; i++) occurrences.add(Varint.readVarint(in, pos));
         }
-        return result;
-    }
 
-    /**
-     * Performans istatistikleri
-     */
-    public CompressionStats getStats(String original, String compressed) {
-        double ratio = (double) compressed.length() / original.length() * 100;
-        return new CompressionStats(original.length(), compressed.length(), ratio);
-    }
+        void parseMixed(String list) {
+            for (String item : list.split(",")) {
+                int eq = item.indexOf('=');
+                if (eq > 0) mixed.put(Integer.parseInt(item.substring(0, eq)), item.substring(eq + 1));
+            }
+        }
 
-    public static class CompressionStats {
-        public final int originalSize;
-        public final int compressedSize;
-        public final double compressionRatio;
+        private static String format(long hi, long lo, boolean upperCase) {
+            char[] c = new char[36];
+            int p = 0;
+            for (int k = 0; k < 32; k++) {
+                if (k == 8 || k == 12 || k == 16 || k == 20) c[p++] = '-';
+                long word = k < 16 ? hi : lo;
+                int v = (int) (word >>> (60 - 4 * (k & 15))) & 0xF;
+                c[p++] = (char) (v < 10 ? '0' + v : (upperCase ? 'A' : 'a') + v - 10);
+            }
+            return new String(c);
+        }
 
-        public CompressionStats(int original, int compressed, double ratio) {
-            this.originalSize = original;
-            this.compressedSize = compressed;
-            this.compressionRatio = ratio;
+        private static void writeLong(ByteArrayOutputStream out, long v) {
+            for (int s = 56; s >= 0; s -= 8) out.write((int) (v >>> s) & 0xFF);
         }
 
-        @Override
-        public String toString() {
-            return String.format("Original: %d bytes, Compressed: %d bytes, Ratio: %.2f%%",
-                              originalSize, compressedSize, compressionRatio);
+        private static long readLong(byte[] in, int pos) {
+            long v = 0;
+            for (int k = 0; k < 8; k++) v = (v << 8) | (in[pos + k] & 0xFF);
+            return v;
         }
     }
 
-    // ===== Binary token stream scaffolding (phase 1) =====
     private static final class Varint {
         static void writeVarint(ByteArrayOutputStream out, int value) {
             // Unsigned LEB128 (value assumed >= 0)
@@ -483,6 +3297,170 @@ public class SmartRLE {
         }
     }
 
+    /**
+     * Kanonik Huffman (bayt alfabesi, kod uzunluğu <= 12 bit, tablo ile tek adımda çözme)
+     *
+     * Format: varint(orijinal uzunluk) + 128 bayt (256 sembol x 4 bit kod uzunluğu) + MSB-first bit akışı.
+     */
+    private static final class Huffman {
+        static final int MAX_BITS = 12;
+
+        static byte[] encode(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 160);
+            Varint.writeVarint(out, data.length);
+            int[] freq = new int[256];
+            for (byte b : data) freq[b & 0xFF]++;
+            int[] lengths = codeLengths(freq);
+            for (int s = 0; s < 256; s += 2) {
+                out.write((lengths[s] << 4) | lengths[s + 1]);
+            }
+            int[] codes = canonicalCodes(lengths);
+
+            byte[] buf = new byte[data.length + 16];
+            int pos = 0;
+            long acc = 0;
+            int bits = 0;
+            for (byte b : data) {
+                int s = b & 0xFF;
+                acc = (acc << lengths[s]) | codes[s];
+                bits += lengths[s];
+                while (bits >= 8) {
+                    bits -= 8;
+                    if (pos == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                    buf[pos++] = (byte) (acc >>> bits);
+                }
+            }
+            if (bits > 0) {
+                if (pos == buf.length) buf = Arrays.copyOf(buf, buf.length + 1);
+                buf[pos++] = (byte) (acc << (8 - bits));
+            }
+            out.write(buf, 0, pos);
+            return out.toByteArray();
+        }
+
+        static byte[] decode(byte[] enc) {
+            int[] posRef = {0};
+            int n = Varint.readVarint(enc, posRef);
+            int pos = posRef[0];
+            if (pos + 128 > enc.length) throw new IllegalArgumentException("Truncated Huffman table");
+            // every symbol costs at least one bit, so n is bounded by the bits that follow the table
+            if (n < 0 || (long) n > 8L * (enc.length - pos - 128)) {
+                throw new IllegalArgumentException("Corrupt Huffman length: " + n);
+            }
+            int[] lengths = new int[256];
+            long kraft = 0;
+            for (int s = 0; s < 256; s += 2) {
+                int b = enc[pos++] & 0xFF;
+                lengths[s] = b >>> 4;
+                lengths[s + 1] = b & 0x0F;
+            }
+            for (int len : lengths) {
+                if (len > MAX_BITS) throw new IllegalArgumentException("Corrupt Huffman code length: " + len);
+                if (len > 0) kraft += 1L << (MAX_BITS - len);
+            }
+            // an over-subscribed table would overlap codes and run past the lookup table
+            if (kraft > 1L << MAX_BITS) throw new IllegalArgumentException("Corrupt Huffman table");
+            // one lookup per symbol: table[next 12 bits] = symbol << 4 | code length
+            int[] codes = canonicalCodes(lengths);
+            int[] table = new int[1 << MAX_BITS];
+            for (int s = 0; s < 256; s++) {
+                int len = lengths[s];
+                if (len == 0) continue;
+                int first = codes[s] << (MAX_BITS - len);
+                int count = 1 << (MAX_BITS - len);
+                Arrays.fill(table, first, first + count, (s << 4) | len);
+            }
+
+            byte[] out = new byte[n];
+            final int mask = (1 << MAX_BITS) - 1;
+            long acc = 0;
+            int bits = 0;
+            int i = 0;
+            while (i < n) {
+                // refill to >= 57 bits, then decode up to 4 symbols (4 x 12 bits) without checks
+                while (bits <= 56) {
+                    acc = (acc << 8) | (pos < enc.length ? (enc[pos] & 0xFF) : 0);
+                    pos++;
+                    bits += 8;
+                }
+                int batchEnd = Math.min(n, i + 4);
+                while (i < batchEnd) {
+                    int entry = table[(int) (acc >>> (bits - MAX_BITS)) & mask];
+                    if (entry == 0) throw new IllegalArgumentException("Corrupt Huffman stream");
+                    out[i++] = (byte) (entry >>> 4);
+                    bits -= entry & 0x0F;
+                }
+            }
+            if (pos - bits / 8 > enc.length) throw new IllegalArgumentException("Truncated Huffman stream");
+            return out;
+        }
+
+        // Huffman lengths; frequencies are halved and rebuilt until every code fits MAX_BITS
+        private static int[] codeLengths(int[] freq) {
+            int[] f = freq.clone();
+            while (true) {
+                int[] lengths = buildLengths(f);
+                int max = 0;
+                for (int len : lengths) max = Math.max(max, len);
+                if (max <= MAX_BITS) return lengths;
+                for (int s = 0; s < 256; s++) {
+                    if (f[s] > 0) f[s] = Math.max(1, f[s] >>> 1);
+                }
+            }
+        }
+
+        private static int[] buildLengths(int[] freq) {
+            int[] lengths = new int[256];
+            int nodes = 0;
+            for (int f : freq) if (f > 0) nodes++;
+            if (nodes == 0) return lengths;
+            if (nodes == 1) {
+                for (int s = 0; s < 256; s++) if (freq[s] > 0) lengths[s] = 1;
+                return lengths;
+            }
+            // node ids: 0..255 leaves, 256.. internal; parent[] tracks the tree for depth computation
+            // queue entries: freq << 16 | node id (ties broken by id, so lengths are deterministic)
+            int[] parent = new int[512];
+            PriorityQueue<Long> pq = new PriorityQueue<>(nodes);
+            for (int s = 0; s < 256; s++) {
+                if (freq[s] > 0) pq.add(((long) freq[s] << 16) | s);
+            }
+            int next = 256;
+            while (pq.size() > 1) {
+                long a = pq.poll();
+                long b = pq.poll();
+                int id = next++;
+                parent[(int) (a & 0xFFFF)] = id;
+                parent[(int) (b & 0xFFFF)] = id;
+                pq.add((((a >>> 16) + (b >>> 16)) << 16) | id);
+            }
+            int root = next - 1;
+            int[] depth = new int[512];
+            for (int id = root - 1; id >= 256; id--) depth[id] = depth[parent[id]] + 1;
+            for (int s = 0; s < 256; s++) {
+                if (freq[s] > 0) lengths[s] = depth[parent[s]] + 1;
+            }
+            return lengths;
+        }
+
+        private static int[] canonicalCodes(int[] lengths) {
+            int[] blCount = new int[MAX_BITS + 2];
+            for (int len : lengths) if (len > 0) blCount[len]++;
+            int[] nextCode = new int[MAX_BITS + 2];
+            int code = 0;
+            for (int bits = 1; bits <= MAX_BITS + 1; bits++) {
+                code = (code + blCount[bits - 1]) << 1;
+                nextCode[bits] = code;
+            }
+            int[] codes = new int[256];
+            for (int s = 0; s < 256; s++) {
+                int len = lengths[s];
+                if (len > 0) codes[s] = nextCode[len]++;
+            }
+            return codes;
+        }
+    }
+
     // Opcodes reserved for future binary token stream
     private static final int OP_LITERAL_STR = 0xF0;
     private static final int OP_BACKREF     = 0xF1;
@@ -521,28 +3499,169 @@ public class SmartRLE {
     // ===== New helpers for log-specific pipeline =====
 
     private void resetState() {
-        patternHistory.clear();
-        lineTemplates.clear();
-        timestamps.clear();
-        ips.clear();
-        uuids.clear();
-        ids.clear();
-        charMap.clear();
+        if (headerShared) {
+            // containers are owned by a cached HeaderState: detach instead of clearing
+            patternHistory = new LinkedHashMap<>();
+            lineTemplates = new LinkedHashMap<>();
+            timestamps = new ArrayList<>();
+            ips = new IpColumn();
+            uuids = new UuidColumn();
+            ids = new NumericIdColumn();
+            apacheTimestamps = new ArrayList<>();
+            apacheTsDeltas = new IntList();
+            methods = new ArrayList<>();
+            paths = new ArrayList<>();
+            statuses = new ArrayList<>();
+            referers = new ArrayList<>();
+            userAgents = new ArrayList<>();
+            charMap = new LinkedHashMap<>();
+            fmtTemplates = new ArrayList<>();
+            fmtColumns = new LinkedHashMap<>();
+            headerDict = new LinkedHashMap<>();
+            headerShared = false;
+        } else {
+            patternHistory.clear();
+            lineTemplates.clear();
+            timestamps.clear();
+            ips.clear();
+            uuids.clear();
+            ids.clear();
+            apacheTimestamps.clear();
+            apacheTsDeltas.clear();
+            methods.clear();
+            paths.clear();
+            statuses.clear();
+            referers.clear();
+            userAgents.clear();
+            charMap.clear();
+            fmtTemplates.clear();
+            fmtColumns.clear();
+            headerDict.clear();
+        }
+        apacheTsBaseEpoch = -1L;
+        apacheTsOffset = null;
+        usedDictCodes.clear();
+        stagePlan = LEGACY_STAGES;
+        opcodeRuns = false;
+        tagCodes = false;
+        chunkBase = -1L;
+        chunkBaseWindow = 0;
+        dataCoding = null;
         nextPatternCode = 0;
         nextLineCode = 0;
+        lineCodes.clear();
+        lineCodeCost = 0L;
+        formatName = null;
+        fmtTemplateIds.clear();
     }
 
     private String preprocess(String input) {
-        String[] lines = input.split("\r?\n", -1);
-        StringBuilder out = new StringBuilder();
+        String[] lines = splitLines(input, "\r\n".equals(eol));
+        SmartRLEFormats.LogFormat format = FORMAT_NONE.equals(formatMode) ? null
+            : FORMAT_AUTO.equals(formatMode) ? SmartRLEFormats.detect(input)
+            : SmartRLEFormats.byName(formatMode);
+        SmartRLEFormats.LineBuilder fields = format == null ? null : new SmartRLEFormats.LineBuilder();
+        formatName = format == null ? null : format.name();
+        LineScratch scratch = new LineScratch();
+        StringBuilder out = acquireBuffer(input.length());
         for (int i = 0; i < lines.length; i++) {
-            String norm = normalizeLine(lines[i]);
+            String norm;
+            if (lines[i].indexOf(TAG) >= 0) {
+                // a literal TAG: double it and leave the line alone, so no tag of ours sits next to it
+                norm = escapeTags(lines[i]);
+            } else if (format == null) {
+                norm = normalizeLine(lines[i], scratch);
+            } else if (SmartRLEFormats.accepts(format, lines[i], fields)) {
+                norm = formatLine(fields);
+            } else {
+                norm = normalizeLine(lines[i], scratch);
+            }
             out.append(norm);
             if (i < lines.length - 1) out.append("\n");
         }
+        scratch.buffers.release();
+        return finish(out);
+    }
+
+    // per-preprocess state of normalizeLine: matchers reset per line, ping-pong buffers for the passes
+    private final class LineScratch {
+        final Matcher apache = APACHE_COMBINED.matcher("");
+        final Matcher ipOnly = IPV4.matcher("");
+        final Matcher apacheTs = APACHE_TS.matcher("");
+        final Matcher ts = TS_YMD_HMS.matcher("");
+        final Matcher ip = IPV4.matcher("");
+        final Matcher uuid = UUID_RE.matcher("");
+        final Matcher id = LONG_ID.matcher("");
+        final PingPong buffers = new PingPong(256);
+    }
+
+    // plugin-parsed line -> format tag of template t; values go to per-key columns
+    private String formatLine(SmartRLEFormats.LineBuilder fields) {
+        String template = fields.template();
+        Integer id = fmtTemplateIds.get(template);
+        if (id == null) {
+            id = fmtTemplates.size();
+            fmtTemplateIds.put(template, id);
+            fmtTemplates.add(template);
+        }
+        List<String> keys = fields.keys();
+        List<String> values = fields.values();
+        for (int k = 0; k < keys.size(); k++) {
+            fmtColumns.computeIfAbsent(keys.get(k), x -> new ArrayList<>()).add(values.get(k));
+        }
+        return tag(TAG_FORMAT, id);
+    }
+
+    // legacy: expands __FMTt__ lines from the templates and columns (last step of denormalize)
+    private String renderFormatLines(String text) {
+        SmartRLEFormats.Template[] templates = new SmartRLEFormats.Template[fmtTemplates.size()];
+        for (int t = 0; t < templates.length; t++) templates[t] = new SmartRLEFormats.Template(fmtTemplates.get(t));
+        Map<String, int[]> cursors = new HashMap<>();
+        StringBuilder out = new StringBuilder(text.length() * 4);
+        int pos = 0;
+        while (pos <= text.length()) {
+            int nl = text.indexOf('\n', pos);
+            int end = nl < 0 ? text.length() : nl;
+            int id = -1;
+            if (text.startsWith(FMT_ESCAPE, pos)) {
+                pos += FMT_ESCAPE.length();
+            } else if (end - pos > 7 && text.startsWith(FMT_PREFIX, pos) && text.startsWith("__", end - 2)) {
+                id = parseIndex(text, pos + FMT_PREFIX.length(), end - 2);
+            }
+            if (id >= 0 && id < templates.length) {
+                renderTemplate(out, templates[id], cursors);
+            } else {
+                out.append(text, pos, end);
+            }
+            if (nl < 0) break;
+            out.append('\n');
+            pos = nl + 1;
+        }
         return out.toString();
     }
 
+    // one format line: template literals around the next value of each key's column
+    private void renderTemplate(StringBuilder out, SmartRLEFormats.Template t, Map<String, int[]> cursors) {
+        for (int k = 0; k < t.keys.length; k++) {
+            out.append(t.literals[k]);
+            List<String> column = fmtColumns.get(t.keys[k]);
+            int[] cur = cursors.computeIfAbsent(t.keys[k], x -> new int[1]);
+            if (column != null && cur[0] < column.size()) out.append(column.get(cur[0]++));
+        }
+        out.append(t.literals[t.keys.length]);
+    }
+
+    private static int parseIndex(String s, int from, int to) {
+        if (from >= to || to - from > 9) return -1;
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
     private static final Pattern TS_YMD_HMS = Pattern.compile("\\b\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}(?:,\\d{3})?\\b");
     private static final Pattern APACHE_TS = Pattern.compile("\\[(\\d{2}/[A-Za-z]{3}/\\d{4}:\\d{2}:\\d{2}:\\d{2} [+-]\\d{4})\\]");
     private static final DateTimeFormatter APACHE_FMT = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
@@ -556,12 +3675,30 @@ public class SmartRLE {
     private static final Pattern UUID_RE = Pattern.compile("\\b[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[1-5][0-9a-fA-F]{3}-[89abAB][0-9a-fA-F]{3}-[0-9a-fA-F]{12}\\b");
     private static final Pattern LONG_ID = Pattern.compile("\\b\\d{6,}\\b");
 
-    private String normalizeLine(String line) {
+    private static String rebuildApache(String ip, String ident, String user, String ts, String method, String path,
+                                        String httpVer, String status, String size, String ref, String ua, boolean withRefUa) {
+        StringBuilder nb = new StringBuilder();
+        nb.append(ip).append(' ').append(ident).append(' ').append(user).append(' ');
+        nb.append('[').append(ts).append("] ");
+        nb.append('"').append(method).append(' ').append(path);
+        if (httpVer != null) { nb.append(' ').append(httpVer); }
+        nb.append('"').append(' ');
+        nb.append(status).append(' ').append(size);
+        if (withRefUa) {
+            nb.append(' ');
+            nb.append('"').append(ref).append('"').append(' ').append('"').append(ua).append('"');
+        }
+        return nb.toString();
+    }
+
+    private String normalizeLine(String line, LineScratch scratch) {
         String n = line;
         // Try Apache combined log parse
         try {
-            Matcher m = APACHE_COMBINED.matcher(n);
-            if (m.matches()) {
+            Matcher m = scratch.apache.reset(n);
+            // only take lines the rebuild below reproduces exactly (no trailing fields, single spaces)
+            if (m.matches() && line.equals(rebuildApache(m.group(1), m.group(2), m.group(3), m.group(4), m.group(5),
+                    m.group(6), m.group(7), m.group(8), m.group(9), m.group(10), m.group(11), m.group(10) != null))) {
                 String ip = m.group(1);
                 String ident = m.group(2);
                 String user = m.group(3);
@@ -575,28 +3712,29 @@ public class SmartRLE {
                 String ua = m.group(11) == null ? "-" : m.group(11);
 
                 // map IP
-                Matcher mIpOnly = IPV4.matcher(ip);
+                Matcher mIpOnly = scratch.ipOnly.reset(ip);
                 if (mIpOnly.matches()) {
                     int idxIp = ips.size();
                     ips.add(ip);
-                    ip = "__IP" + idxIp + "__";
+                    ip = tag(TAG_IP, idxIp);
                 }
 
                 // map method/status
                 int idxM = methods.indexOf(method);
                 if (idxM < 0) { idxM = methods.size(); methods.add(method); }
-                String methodTok = "__METH" + idxM + "__";
+                String methodTok = tag(TAG_METHOD, idxM);
 
                 int idxS = statuses.indexOf(status);
                 if (idxS < 0) { idxS = statuses.size(); statuses.add(status); }
-                String statusTok = "__STAT" + idxS + "__";
+                String statusTok = tag(TAG_STATUS, idxS);
 
                 // path (guardrail)
                 String pathTok = path;
                 if (mapPaths) {
                     int idxP = paths.indexOf(path);
                     if (idxP < 0 && paths.size() < MAX_PATHS) { idxP = paths.size(); paths.add(path); }
-                    if (idxP >= 0) pathTok = "__PATH" + idxP + "__";
+                    if (idxP >= 0) pathTok = tag(TAG_PATH, idxP);
+                    else if (metrics != null) metrics.pathCapHits++;
                 }
 
                 // referer / UA (guardrail)
@@ -604,168 +3742,201 @@ public class SmartRLE {
                 if (mapReferers) {
                     int idxR = referers.indexOf(ref);
                     if (idxR < 0 && referers.size() < MAX_REF) { idxR = referers.size(); referers.add(ref); }
-                    if (idxR >= 0) refTok = "__REF" + idxR + "__";
+                    if (idxR >= 0) refTok = tag(TAG_REFERER, idxR);
+                    else if (metrics != null) metrics.refererCapHits++;
                 }
 
                 String uaTok = ua;
                 if (mapUserAgents) {
                     int idxU = userAgents.indexOf(ua);
                     if (idxU < 0 && userAgents.size() < MAX_UA) { idxU = userAgents.size(); userAgents.add(ua); }
-                    if (idxU >= 0) uaTok = "__UA" + idxU + "__";
+                    if (idxU >= 0) uaTok = tag(TAG_USER_AGENT, idxU);
+                    else if (metrics != null) metrics.userAgentCapHits++;
                 }
 
                 // rebuild normalized line preserving ident/user and HTTP version
-                StringBuilder nb = new StringBuilder();
-                nb.append(ip).append(' ').append(ident).append(' ').append(user).append(' ');
-                nb.append('[').append(ts).append("] ");
-                nb.append('"').append(methodTok).append(' ').append(pathTok);
-                if (httpVer != null) { nb.append(' ').append(httpVer); }
-                nb.append('"').append(' ');
-                nb.append(statusTok).append(' ').append(size);
-                nb.append(' ');
-                nb.append('"').append(refTok).append('"').append(' ').append('"').append(uaTok).append('"');
-                n = nb.toString();
+                n = rebuildApache(ip, ident, user, ts, methodTok, pathTok, httpVer, statusTok, size, refTok, uaTok, m.group(10) != null);
             }
         } catch (Exception ignore) {}
-        // Apache timestamp [dd/Mon/yyyy:HH:mm:ss +/-zzzz] -> __ATSi__ with base+delta capture
-        Matcher mAts = APACHE_TS.matcher(n);
-        StringBuffer sbAts = new StringBuffer();
-        while (mAts.find()) {
-            String full = mAts.group(0); // includes brackets
-            String tsText = mAts.group(1); // inner timestamp
-            int idx = apacheTimestamps.size();
-            apacheTimestamps.add(full);
-            try {
-                // parse inner tsText to epoch seconds and offset
-                ZonedDateTime zdt = ZonedDateTime.parse(tsText.replace(" ", "+0000 ").substring(0, tsText.length()), APACHE_FMT);
-            } catch (Exception ex) {
-                // Fallback: parse using formatter directly
-            }
-            try {
-                ZonedDateTime zdt2 = ZonedDateTime.parse(tsText, APACHE_FMT);
-                long epoch = zdt2.toEpochSecond();
-                String off = tsText.substring(tsText.length()-5);
-                if (apacheTsBaseEpoch < 0) {
-                    apacheTsBaseEpoch = epoch;
-                    apacheTsOffset = off;
+        // Apache timestamp [dd/Mon/yyyy:HH:mm:ss +/-zzzz] -> ATS tag with base+delta capture
+        PingPong pp = scratch.buffers.reset(n);
+        Matcher mAts = scratch.apacheTs.reset(n);
+        if (mAts.find()) {
+            StringBuilder sb = pp.target();
+            do {
+                String full = mAts.group(0); // includes brackets
+                String tsText = mAts.group(1); // inner timestamp
+                int idx = apacheTimestamps.size();
+                apacheTimestamps.add(full);
+                try {
+                    ZonedDateTime zdt = ZonedDateTime.parse(tsText, APACHE_FMT);
+                    long epoch = zdt.toEpochSecond();
+                    String off = tsText.substring(tsText.length()-5);
+                    if (apacheTsBaseEpoch < 0) {
+                        apacheTsBaseEpoch = epoch;
+                        apacheTsOffset = off;
+                    }
+                    int delta = (int)(epoch - apacheTsBaseEpoch);
+                    apacheTsDeltas.add(delta);
+                } catch (Exception ignore) {
+                    // if parse fails, we still have fallback list
+                    apacheTsDeltas.add(0);
+                    if (apacheTsBaseEpoch < 0) apacheTsBaseEpoch = 0L;
+                    if (apacheTsOffset == null) apacheTsOffset = "+0000";
                 }
-                int delta = (int)(epoch - apacheTsBaseEpoch);
-                apacheTsDeltas.add(delta);
-            } catch (Exception ignore) {
-                // if parse fails, we still have fallback list
-                apacheTsDeltas.add(0);
-                if (apacheTsBaseEpoch < 0) apacheTsBaseEpoch = 0L;
-                if (apacheTsOffset == null) apacheTsOffset = "+0000";
-            }
-            mAts.appendReplacement(sbAts, Matcher.quoteReplacement("__ATS" + idx + "__"));
-        }
-        mAts.appendTail(sbAts);
-        n = sbAts.toString();
-        // timestamps -> __TSi__
-        Matcher mTs = TS_YMD_HMS.matcher(n);
-        StringBuffer sb = new StringBuffer();
-        while (mTs.find()) {
-            String val = mTs.group();
-            int idx = timestamps.size();
-            timestamps.add(val);
-            mTs.appendReplacement(sb, Matcher.quoteReplacement("__TS" + idx + "__"));
-        }
-        mTs.appendTail(sb);
-        n = sb.toString();
-
-        // IPv4 -> __IPi__
-        Matcher mIp = IPV4.matcher(n);
-        sb = new StringBuffer();
-        while (mIp.find()) {
-            String val = mIp.group();
-            int idx = ips.size();
-            ips.add(val);
-            mIp.appendReplacement(sb, Matcher.quoteReplacement("__IP" + idx + "__"));
-        }
-        mIp.appendTail(sb);
-        n = sb.toString();
-
-        // UUID -> __UUIDi__
-        Matcher mUuid = UUID_RE.matcher(n);
-        sb = new StringBuffer();
-        while (mUuid.find()) {
-            String val = mUuid.group();
-            int idx = uuids.size();
-            uuids.add(val);
-            mUuid.appendReplacement(sb, Matcher.quoteReplacement("__UUID" + idx + "__"));
-        }
-        mUuid.appendTail(sb);
-        n = sb.toString();
-
-        // long numeric IDs -> __IDi__
-        Matcher mId = LONG_ID.matcher(n);
-        sb = new StringBuffer();
-        while (mId.find()) {
-            String val = mId.group();
-            int idx = ids.size();
-            ids.add(val);
-            mId.appendReplacement(sb, Matcher.quoteReplacement("__ID" + idx + "__"));
-        }
-        mId.appendTail(sb);
-        n = sb.toString();
-
-        return n;
+                mAts.appendReplacement(sb, "");
+                appendTag(sb, TAG_APACHE_TS, idx);
+            } while (mAts.find());
+            mAts.appendTail(sb);
+            pp.commit(sb);
+        }
+        // timestamps, IPv4, UUIDs and long numeric IDs -> TS / IP / UUID / ID tags
+        replacePlaceholders(pp, scratch.ts, TAG_TS, timestamps);
+        replacePlaceholders(pp, scratch.ip, TAG_IP, ips);
+        replacePlaceholders(pp, scratch.uuid, TAG_UUID, uuids);
+        replacePlaceholders(pp, scratch.id, TAG_ID, ids);
+        return pp.current() == n ? n : pp.result();
+    }
+
+    // one normalize pass: each match is appended to values and replaced by a tag of that kind
+    private static void replacePlaceholders(PingPong pp, Matcher m, char kind, List<String> values) {
+        CharSequence text = pp.current();
+        m.reset(text);
+        if (!m.find()) return;
+        StringBuilder sb = pp.target();
+        do {
+            int idx = values.size();
+            values.add(m.group());
+            m.appendReplacement(sb, "");
+            appendTag(sb, kind, idx);
+        } while (m.find());
+        m.appendTail(sb);
+        pp.commit(sb);
     }
 
+    private static final int DEFAULT_MAX_LINE_CODES = 1 << 18;
+    private static final int DEFAULT_MAX_LINE_CODE_CHARS = 1 << 23;
+    private static final int LCODE_ENTRY_OVERHEAD = "LCODE:=\n".length();
+    private static final int MIN_LINE_CANDIDATES = 1 << 16;
+
     private String applyLineCoding(String input) {
         String[] lines = input.split("\n", -1);
-        // First pass: count frequencies
-        Map<String, Integer> freq = new LinkedHashMap<>();
-        for (String l : lines) {
-            freq.put(l, freq.getOrDefault(l, 0) + 1);
-        }
-        // Assign codes only to lines with freq >= 2
-        Map<String, String> lineToCode = new HashMap<>();
-        for (Map.Entry<String,Integer> e : freq.entrySet()) {
-            if (e.getValue() >= 2) {
-                String code = nextLineCode();
-                String wrapped = wrapCode(code);
-                lineTemplates.put(wrapped, e.getKey());
-                lineToCode.put(e.getKey(), wrapped);
+        // Units: head lines, and each block of continuation lines (stack frames) as a whole record body
+        int[] unitEnd = new int[lines.length];
+        String[] blocks = new String[lines.length];
+        int candidateCap = Math.max(MIN_LINE_CANDIDATES, 2 * maxLineCodes);
+        Map<String, int[]> freq = new LinkedHashMap<>();
+        for (int i = 0; i < lines.length; i = unitEnd[i]) {
+            int end = continuationEnd(lines, i);
+            if (end - i < 2) {
+                unitEnd[i] = i + 1;
+                continue;
             }
+            unitEnd[i] = end;
+            blocks[i] = String.join("\n", Arrays.asList(lines).subList(i, end));
+            countCandidate(freq, blocks[i], candidateCap);
+        }
+        admitLineCodes(freq);
+        // then single lines, skipping blocks that got a code of their own
+        freq = new LinkedHashMap<>();
+        for (int i = 0; i < lines.length; i = unitEnd[i]) {
+            if (blocks[i] != null && lineCodes.containsKey(blocks[i])) continue;
+            for (int k = i; k < unitEnd[i]; k++) countCandidate(freq, lines[k], candidateCap);
         }
+        admitLineCodes(freq);
 
-        StringBuilder out = new StringBuilder();
+        StringBuilder out = acquireBuffer(input.length());
         String prevToken = null;
         int run = 0;
-        for (int i = 0; i < lines.length; i++) {
-            String l = lines[i];
-            String token = lineToCode.getOrDefault(l, l); // use code if assigned, else raw line
-            if (prevToken == null) {
-                prevToken = token;
-                run = 1;
-            } else if (token.equals(prevToken)) {
-                run++;
-            } else {
-                flushLineRun(out, prevToken, run);
-                prevToken = token;
-                run = 1;
+        for (int i = 0; i < lines.length; i = unitEnd[i]) {
+            String block = blocks[i] == null ? null : lineCodes.get(blocks[i]);
+            for (int k = i; k < (block != null ? i + 1 : unitEnd[i]); k++) {
+                String token = block != null ? block : lineCodes.getOrDefault(lines[k], lines[k]); // code if assigned, else raw line
+                if (prevToken == null) {
+                    prevToken = token;
+                    run = 1;
+                } else if (token.equals(prevToken)) {
+                    run++;
+                } else {
+                    flushLineRun(out, prevToken, run);
+                    prevToken = token;
+                    run = 1;
+                }
             }
         }
         if (prevToken != null) flushLineRun(out, prevToken, run);
-        return out.toString();
+        return finish(out);
     }
 
-    private void flushLineRun(StringBuilder out, String token, int run) {
-        if (run >= 2) {
-            out.append("R|").append(token).append("|").append(run).append("|\n");
+    // the candidate table is capped so memory stays bounded on unique-heavy input
+    private static void countCandidate(Map<String, int[]> freq, String unit, int cap) {
+        int[] c = freq.get(unit);
+        if (c != null) c[0]++;
+        else if (freq.size() < cap) freq.put(unit, new int[] {1});
+    }
+
+    /**
+     * Kod yalnız kazancı header maliyetini geçen satırlara verilir: frekans × (uzunluk - kod) > giriş maliyeti.
+     * Bütçe aşılırsa en yüksek net kazançlılar seçilir; kodlar ilk görülme sırasıyla dağıtılır.
+     */
+    private void admitLineCodes(Map<String, int[]> freq) {
+        List<String> candidates = new ArrayList<>();
+        List<Integer> costs = new ArrayList<>();
+        List<Long> gains = new ArrayList<>();
+        long totalCost = 0;
+        for (Map.Entry<String, int[]> e : freq.entrySet()) {
+            int count = e.getValue()[0];
+            if (count < 2) continue;
+            String line = e.getKey();
+            int codeLen = wrapCode(lineCodeName(nextLineCode + candidates.size())).length();
+            int cost = LCODE_ENTRY_OVERHEAD + codeLen + escapeLine(line).length();
+            long gain = (long) count * (line.length() - codeLen) - cost;
+            if (gain <= 0) continue;
+            candidates.add(line);
+            costs.add(cost);
+            gains.add(gain);
+            totalCost += cost;
+        }
+        boolean[] admit = new boolean[candidates.size()];
+        int entriesLeft = maxLineCodes - lineCodes.size();
+        long charsLeft = maxLineCodeChars - lineCodeCost;
+        if (candidates.size() <= entriesLeft && totalCost <= charsLeft) {
+            Arrays.fill(admit, true);
         } else {
-            out.append(token).append("\n");
+            Integer[] order = new Integer[candidates.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(gains.get(b), gains.get(a)));
+            long used = 0;
+            int taken = 0;
+            for (int i : order) {
+                if (taken >= entriesLeft) break;
+                if (used + costs.get(i) > charsLeft) continue;
+                admit[i] = true;
+                used += costs.get(i);
+                taken++;
+            }
+        }
+        for (int i = 0; i < admit.length; i++) {
+            if (!admit[i]) continue;
+            lineCodeFor(candidates.get(i));
+            lineCodeCost += costs.get(i);
         }
     }
 
-    private String lineCodeFor(String line) {
-        for (Map.Entry<String,String> e : lineTemplates.entrySet()) {
-            if (e.getValue().equals(line)) return e.getKey();
+    private void flushLineRun(StringBuilder out, String token, int run) {
+        if (run >= 2 || (!token.isEmpty() && token.charAt(0) == OP_RUN)) {
+            appendRun(out, run);
         }
-        String code = nextLineCode();
-        String wrapped = wrapCode(code);
+        out.append(token).append('\n');
+    }
+
+    // O(1) both ways: lineCodes on encode, lineTemplates (wrapped code -> line) on decode
+    private String lineCodeFor(String line) {
+        String wrapped = lineCodes.get(line);
+        if (wrapped != null) return wrapped;
+        wrapped = wrapCode(nextLineCode());
         lineTemplates.put(wrapped, line);
+        lineCodes.put(line, wrapped);
         return wrapped;
     }
 
@@ -776,21 +3947,34 @@ public class SmartRLE {
     }
 
     private String nextLineCode() {
-        String c = String.format("L%02d", nextLineCode);
-        nextLineCode++;
-        return c;
+        return lineCodeName(nextLineCode++);
+    }
+
+    private static String lineCodeName(int n) {
+        return n < 10 ? "L0" + n : "L" + n;
     }
 
     private String buildHeader() {
+        HeaderEvent event = new HeaderEvent();
+        event.begin();
+        boolean guardrailTripped = false;
         StringBuilder h = new StringBuilder();
         h.append("[SMARTRLE_HEADER]\n");
         h.append("VERSION:SmartRLEv1-log\n");
         h.append("EOL:").append("\r\n".equals(eol) ? "CRLF" : "LF").append("\n");
         h.append("TRAIL:").append(hasTrailingEol ? "1" : "0").append("\n");
+        h.append("PLAN:").append(stagePlan).append("\n");
+        h.append("RUNS:OP\n");
+        h.append("CODES:TAG\n");
+        if (chunkBase >= 0) {
+            h.append("CHUNKS:").append(chunkBase).append('/').append(chunkBaseWindow).append("\n");
+        }
         if (apacheTsBaseEpoch >= 0) {
             h.append("ATSBASE:").append(apacheTsBaseEpoch).append("\n");
             h.append("ATSOFFSET:").append(apacheTsOffset == null ? "" : apacheTsOffset).append("\n");
-            h.append("ATSDELTA:").append(joinIntList(apacheTsDeltas)).append("\n");
+            h.append("ATSDELTA:");
+            apacheTsDeltas.appendJoined(h);
+            h.append("\n");
         }
         // Guardrail: if these sections are too large, skip mapping in this segment
         int approxBefore = h.length();
@@ -805,14 +3989,27 @@ public class SmartRLE {
         if (mapUserAgents) h.append("UA:").append(joinList(userAgents)).append("\n");
         h.append("METH:").append(joinList(methods)).append("\n");
         h.append("STAT:").append(joinList(statuses)).append("\n");
-        h.append("IP:").append(joinList(ips)).append("\n");
-        h.append("UUID:").append(joinList(uuids)).append("\n");
-        h.append("ID:").append(joinList(ids)).append("\n");
+        h.append("IP:");
+        ips.appendJoined(h);
+        h.append("\n");
+        uuids.appendHeader(h);
+        h.append("ID:");
+        ids.appendJoined(h);
+        h.append("\n");
+        if (formatName != null) {
+            h.append("FMT:").append(formatName).append("\n");
+            for (String t : fmtTemplates) h.append("FTPL:").append(escapeLine(t)).append("\n");
+            for (Map.Entry<String, List<String>> e : fmtColumns.entrySet()) {
+                h.append("FCOL:").append(e.getKey()).append('\t').append(SmartRLEFormats.encodeColumn(e.getValue())).append("\n");
+            }
+        }
         approxAfter = h.length();
         // if header grew too much, disable heavy mappings next segment
         int grown = approxAfter - approxBefore;
         if (grown > 8192) { // 8KB guardrail
             mapPaths = false; mapReferers = false; mapUserAgents = false;
+            guardrailTripped = true;
+            if (metrics != null) metrics.guardrailMappingsDisabled = true;
         }
         // dictionary (only used codes)
         if (!usedDictCodes.isEmpty()) {
@@ -840,10 +4037,33 @@ public class SmartRLE {
         for (Map.Entry<String,String> e : charMap.entrySet()) {
             h.append("CHAR:").append(e.getKey()).append("=").append(escapeCharStr(e.getValue())).append("\n");
         }
+        if (metrics != null) metrics.recordHeaderSections(h);
+        commitHeaderEvent(event, "build", h.length(), guardrailTripped);
         return h.toString();
     }
 
     private void parseHeader(String header) {
+        HeaderEvent event = new HeaderEvent();
+        event.begin();
+        parseHeaderText(header);
+        commitHeaderEvent(event, "parse", header.length(), false);
+    }
+
+    private void commitHeaderEvent(HeaderEvent event, String direction, int headerChars, boolean guardrailTripped) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.direction = direction;
+        event.headerChars = headerChars;
+        event.guardrailTripped = guardrailTripped;
+        event.ipCount = ips.size();
+        event.pathCount = paths.size();
+        event.userAgentCount = userAgents.size();
+        event.patternCount = patternHistory.size();
+        event.lineTemplateCount = lineTemplates.size();
+        event.commit();
+    }
+
+    private void parseHeaderText(String header) {
         resetState();
         if (header.startsWith("[SMARTRLE_HEADERGZ]")) {
             String[] lines0 = header.split("\n");
@@ -870,6 +4090,7 @@ public class SmartRLE {
                     String word = kv[1];
                     // reverse mapping for replacement usage
                     dictionary.put(word, code);
+                    headerDict.put(word, code);
                 }
             } else if (l.startsWith("PAT:")) {
                 String[] kv = l.substring(4).split("=", 2);
@@ -895,7 +4116,7 @@ public class SmartRLE {
             } else if (l.startsWith("ATSOFFSET:")) {
                 this.apacheTsOffset = l.substring(10).trim();
             } else if (l.startsWith("ATSDELTA:")) {
-                this.apacheTsDeltas = splitIntList(l.substring(9));
+                this.apacheTsDeltas = IntList.parse(l, 9);
             } else if (l.startsWith("METH:")) {
                 methods.addAll(splitList(l.substring(5)));
             } else if (l.startsWith("PATH:")) {
@@ -907,17 +4128,40 @@ public class SmartRLE {
             } else if (l.startsWith("UA:")) {
                 userAgents.addAll(splitList(l.substring(3)));
             } else if (l.startsWith("IP:")) {
-                ips.addAll(splitList(l.substring(3)));
+                addJoined(ips, l, 3);
             } else if (l.startsWith("UUID:")) {
-                uuids.addAll(splitList(l.substring(5)));
+                uuids.addAll(splitList(l.substring(5))); // pre-UUIDC headers
+            } else if (l.startsWith("FMT:")) {
+                formatName = l.substring(4);
+            } else if (l.startsWith("FTPL:")) {
+                fmtTemplates.add(unescapeLine(l.substring(5)));
+            } else if (l.startsWith("FCOL:")) {
+                int tab = l.indexOf('\t');
+                fmtColumns.put(l.substring(5, tab), SmartRLEFormats.decodeColumn(l.substring(tab + 1)));
+            } else if (l.startsWith("UUIDC:")) {
+                uuids.parseHeader(l.substring(6));
+            } else if (l.startsWith("UUIDMIX:")) {
+                uuids.parseMixed(l.substring(8));
             } else if (l.startsWith("ID:")) {
-                ids.addAll(splitList(l.substring(3)));
+                addJoined(ids, l, 3);
             } else if (l.startsWith("EOL:")) {
                 String v = l.substring(4).trim();
                 this.eol = "CRLF".equals(v) ? "\r\n" : "\n";
             } else if (l.startsWith("TRAIL:")) {
                 String v = l.substring(6).trim();
                 this.hasTrailingEol = "1".equals(v) || "true".equalsIgnoreCase(v);
+            } else if (l.equals("RUNS:OP")) {
+                this.opcodeRuns = true;
+            } else if (l.equals("CODES:TAG")) {
+                this.tagCodes = true;
+            } else if (l.startsWith("CHUNKS:")) {
+                int slash = l.indexOf('/');
+                this.chunkBase = Long.parseLong(l.substring(7, slash));
+                this.chunkBaseWindow = Integer.parseInt(l.substring(slash + 1));
+            } else if (l.startsWith("PLAN:")) {
+                this.stagePlan = l.substring(5).trim();
+            } else if (l.startsWith("DATA:")) {
+                this.dataCoding = l.substring(5).trim();
             }
         }
     }
@@ -925,6 +4169,11 @@ public class SmartRLE {
     private String joinList(List<String> list) {
         if (list.isEmpty()) return "";
         StringBuilder sb = new StringBuilder();
+        if (list instanceof PackedColumn) {
+            // packed columns only hold digits and dots, nothing to escape
+            ((PackedColumn) list).appendJoined(sb);
+            return sb.toString();
+        }
         for (int i = 0; i < list.size(); i++) {
             if (i > 0) sb.append(",");
             sb.append(escapeListItem(list.get(i)));
@@ -932,6 +4181,21 @@ public class SmartRLE {
         return sb.toString();
     }
 
+    // packed columns hold no escapes, so items split on ',' directly
+    private static void addJoined(List<String> column, String line, int from) {
+        if (from >= line.length()) return;
+        int start = from;
+        while (true) {
+            int comma = line.indexOf(',', start);
+            if (comma < 0) {
+                column.add(line.substring(start));
+                return;
+            }
+            column.add(line.substring(start, comma));
+            start = comma + 1;
+        }
+    }
+
     private List<String> splitList(String s) {
         List<String> out = new ArrayList<>();
         if (s == null || s.isEmpty()) return out;
@@ -999,71 +4263,126 @@ public class SmartRLE {
     }
 
     private String denormalize(String input) {
-        String out = input;
+        if (tagCodes) return expandPlaceholders(input);
+        PingPong pp = new PingPong(input.length() * 2).reset(input);
         // TS
-        out = replaceIndexed(out, "__TS", "__", timestamps);
-        // Prefer base+delta if available; fallback to stored list
-        if (apacheTsBaseEpoch >= 0 && apacheTsOffset != null && apacheTsDeltas != null && !apacheTsDeltas.isEmpty()) {
-            // reconstruct bracketed apache timestamps
-            List<String> rebuilt = new ArrayList<>(apacheTsDeltas.size());
-            for (int i = 0; i < apacheTsDeltas.size(); i++) {
-                long epoch = apacheTsBaseEpoch + apacheTsDeltas.get(i);
-                ZonedDateTime zdt = ZonedDateTime.ofInstant(Instant.ofEpochSecond(epoch), ZoneOffset.of(apacheTsOffset));
-                String tsInner = zdt.format(APACHE_FMT);
-                rebuilt.add("[" + tsInner + "]");
-            }
-            out = replaceIndexed(out, "__ATS", "__", rebuilt);
-        } else {
-            out = replaceIndexed(out, "__ATS", "__", apacheTimestamps);
-        }
-        out = replaceIndexed(out, "__IP", "__", ips);
-        out = replaceIndexed(out, "__METH", "__", methods);
-        out = replaceIndexed(out, "__PATH", "__", paths);
-        out = replaceIndexed(out, "__STAT", "__", statuses);
-        out = replaceIndexed(out, "__REF", "__", referers);
-        out = replaceIndexed(out, "__UA", "__", userAgents);
-        out = replaceIndexed(out, "__UUID", "__", uuids);
-        out = replaceIndexed(out, "__ID", "__", ids);
+        replaceIndexed(pp, "__TS", timestamps);
+        replaceIndexed(pp, "__ATS", resolveApacheTimestamps());
+        replaceIndexed(pp, "__IP", ips);
+        replaceIndexed(pp, "__METH", methods);
+        replaceIndexed(pp, "__PATH", paths);
+        replaceIndexed(pp, "__STAT", statuses);
+        replaceIndexed(pp, "__REF", referers);
+        replaceIndexed(pp, "__UA", userAgents);
+        replaceIndexed(pp, "__UUID", uuids);
+        replaceIndexed(pp, "__ID", ids);
+        String out = pp.finish();
+        if (formatName != null) out = renderFormatLines(out);
         return out;
     }
 
-    private String replaceIndexed(String s, String prefix, String suffix, List<String> values) {
-        Pattern p = Pattern.compile(Pattern.quote(prefix) + "(\\d+)" + Pattern.quote(suffix));
-        Matcher m = p.matcher(s);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            int idx = Integer.parseInt(m.group(1));
-            String repl = (idx >= 0 && idx < values.size()) ? values.get(idx) : "";
-            m.appendReplacement(sb, Matcher.quoteReplacement(repl));
+    // Prefer base+delta if available; fallback to stored list
+    private List<String> resolveApacheTimestamps() {
+        if (apacheTsBaseEpoch < 0 || apacheTsOffset == null || apacheTsDeltas == null || apacheTsDeltas.isEmpty()) {
+            return apacheTimestamps;
         }
-        m.appendTail(sb);
-        return sb.toString();
+        // reconstruct bracketed apache timestamps
+        List<String> rebuilt = new ArrayList<>(apacheTsDeltas.size());
+        for (int i = 0; i < apacheTsDeltas.size(); i++) {
+            long epoch = apacheTsBaseEpoch + apacheTsDeltas.get(i);
+            ZonedDateTime zdt = ZonedDateTime.ofInstant(Instant.ofEpochSecond(epoch), ZoneOffset.of(apacheTsOffset));
+            String tsInner = zdt.format(APACHE_FMT);
+            rebuilt.add("[" + tsInner + "]");
+        }
+        return rebuilt;
     }
 
-    private String joinIntList(List<Integer> list) {
-        if (list == null || list.isEmpty()) return "";
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < list.size(); i++) {
-            if (i > 0) sb.append(',');
-            sb.append(list.get(i));
+    // CODES:TAG denormalize: every placeholder kind and escaped TAG in one left-to-right walk
+    private String expandPlaceholders(String s) {
+        int t = s.indexOf(TAG);
+        if (t < 0) return s;
+        List<String> ats = null;
+        SmartRLEFormats.Template[] templates = null;
+        Map<String, int[]> cursors = null;
+        StringBuilder out = acquireBuffer(s.length() * 2);
+        int[] pos = new int[1];
+        int literal = 0;
+        while (t >= 0) {
+            out.append(s, literal, t);
+            if (t + 1 >= s.length()) throw new IllegalArgumentException("Corrupt placeholder at " + t);
+            char kind = s.charAt(t + 1);
+            if (kind == TAG) {
+                out.append(TAG);
+                literal = t + 2;
+                t = s.indexOf(TAG, literal);
+                continue;
+            }
+            pos[0] = t + 2;
+            int index = readTagIndex(s, pos);
+            List<String> values;
+            switch (kind) {
+                case TAG_TS: values = timestamps; break;
+                case TAG_APACHE_TS:
+                    if (ats == null) ats = resolveApacheTimestamps();
+                    values = ats;
+                    break;
+                case TAG_IP: values = ips; break;
+                case TAG_METHOD: values = methods; break;
+                case TAG_PATH: values = paths; break;
+                case TAG_STATUS: values = statuses; break;
+                case TAG_REFERER: values = referers; break;
+                case TAG_USER_AGENT: values = userAgents; break;
+                case TAG_UUID: values = uuids; break;
+                case TAG_ID: values = ids; break;
+                case TAG_FORMAT:
+                    if (templates == null) {
+                        templates = new SmartRLEFormats.Template[fmtTemplates.size()];
+                        for (int k = 0; k < templates.length; k++) templates[k] = new SmartRLEFormats.Template(fmtTemplates.get(k));
+                        cursors = new HashMap<>();
+                    }
+                    if (index >= templates.length) throw new IllegalArgumentException("Corrupt placeholder at " + t);
+                    renderTemplate(out, templates[index], cursors);
+                    values = null;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Corrupt placeholder at " + t);
+            }
+            if (values != null) {
+                if (index >= values.size()) throw new IllegalArgumentException("Corrupt placeholder at " + t);
+                out.append(values.get(index));
+            }
+            literal = pos[0];
+            t = s.indexOf(TAG, literal);
         }
-        return sb.toString();
+        out.append(s, literal, s.length());
+        return finish(out);
     }
 
-    private List<Integer> splitIntList(String s) {
-        List<Integer> out = new ArrayList<>();
-        if (s == null || s.isEmpty()) return out;
-        String[] parts = s.split(",");
-        for (String p : parts) {
-            try { out.add(Integer.parseInt(p.trim())); } catch (Exception ignore) {}
-        }
-        return out;
+    private static final Map<String, Pattern> INDEXED_PLACEHOLDERS = new java.util.concurrent.ConcurrentHashMap<>();
+
+    // prefix<i>__ -> values[i] (out-of-range index -> ""), one ping-pong pass
+    private static void replaceIndexed(PingPong pp, String prefix, List<String> values) {
+        Pattern p = INDEXED_PLACEHOLDERS.computeIfAbsent(prefix, x -> Pattern.compile(Pattern.quote(x) + "(\\d+)__"));
+        Matcher m = p.matcher(pp.current());
+        if (!m.find()) return;
+        StringBuilder sb = pp.target();
+        do {
+            int idx = Integer.parseInt(m.group(1));
+            m.appendReplacement(sb, "");
+            if (idx >= 0 && idx < values.size()) sb.append(values.get(idx));
+        } while (m.find());
+        m.appendTail(sb);
+        pp.commit(sb);
     }
 
+    // CRLF only when every '\n' has its '\r'; mixed input is LF and keeps its '\r's as line content
     private String detectLineSeparator(String s) {
         int idx = s.indexOf('\n');
-        if (idx > 0 && idx - 1 >= 0 && s.charAt(idx - 1) == '\r') return "\r\n";
-        return "\n";
+        if (idx <= 0 || s.charAt(idx - 1) != '\r') return "\n";
+        while ((idx = s.indexOf('\n', idx + 1)) >= 0) {
+            if (s.charAt(idx - 1) != '\r') return "\n";
+        }
+        return "\r\n";
     }
 
     private String applyEol(String s) {
@@ -1081,7 +4400,9 @@ public class SmartRLE {
         return tmp;
     }
 
+    // "D05" -> TAG D f, or ~D05~ in legacy (pre CODES:TAG) segments
     private String wrapCode(String code) {
+        if (tagCodes) return tag(code.charAt(0), Integer.parseInt(code.substring(1)));
         return CODE_SENTINEL + code + CODE_SENTINEL;
     }
 
@@ -1124,15 +4445,9 @@ public class SmartRLE {
     private String gunzipFromBase64(String b64) {
         try {
             byte[] data = Base64.getDecoder().decode(b64);
-            GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(data));
-            BufferedReader br = new BufferedReader(new InputStreamReader(gis, StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                sb.append(line).append('\n');
+            try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                return new String(gis.readAllBytes(), StandardCharsets.UTF_8);
             }
-            if (sb.length() > 0) sb.setLength(sb.length()-1);
-            return sb.toString();
         } catch (Exception e) {
             return "";
         }
@@ -1253,7 +4568,8 @@ public class SmartRLE {
     
     // Apply token-block RLE on repeated sequences
     private String applyTokenBlockRLE(String input) {
-        String[] lines = input.split("\n");
+        // keep trailing empty lines: a run of blank lines at the end is data too
+        String[] lines = input.split("\n", -1);
         StringBuilder result = new StringBuilder();
         
         int i = 0;
@@ -1266,13 +4582,13 @@ public class SmartRLE {
                 count++;
             }
             
-            if (count >= 4) { // RLE threshold for lines
-                result.append("B").append(count).append(":").append(escapeLine(currentLine)).append(";");
-                i += count;
+            if (count >= 2 || currentLine.startsWith(String.valueOf(OP_RUN))) {
+                appendRun(result, count);
             } else {
-                result.append("S").append(escapeLine(currentLine)).append(";");
-                i++;
+                count = 1;
             }
+            result.append(escapeToken(currentLine)).append(';');
+            i += count;
         }
         
         return result.toString();
@@ -1308,10 +4624,11 @@ public class SmartRLE {
     // Decompress line coding
     private String decompressLineCoding(String input) {
         StringBuilder rebuilt = new StringBuilder();
-        String[] tokens = input.split("\n");
+        // every token is '\n'-terminated; keep empty lines (they are real when token blocks are skipped)
+        String[] tokens = input.split("\n", -1);
         
-        for (String t : tokens) {
-            if (t.isEmpty()) continue;
+        for (int k = 0; k < tokens.length - 1; k++) {
+            String t = tokens[k];
             if (t.startsWith("R|") && t.endsWith("|")) {
                 // R|Lxx|count|
                 String body = t.substring(2, t.length() - 1);
@@ -1326,12 +4643,8 @@ public class SmartRLE {
                     continue;
                 }
             }
-            String line = t;
-            if (lineTemplates.containsKey(line)) {
-                rebuilt.append(lineTemplates.get(line)).append("\n");
-            } else {
-                rebuilt.append(line).append("\n");
-            }
+            String line = lineTemplates.get(t);
+            rebuilt.append(line != null ? line : t).append("\n");
         }
         
         return rebuilt.toString();
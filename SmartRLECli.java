@@ -0,0 +1,411 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * SmartRLECli - Komut satırı aracı
+ *
+ * Kullanım:
+ *   smartrle c [seçenekler] &lt;dosya|dizin|-&gt;...   sıkıştır (.srle; "-" ya da argümansız: stdin -&gt; stdout)
+ *   smartrle d [seçenekler] &lt;dosya|dizin|-&gt;...   aç (.srle uzantısı kaldırılır)
+ *   smartrle t [seçenekler] &lt;dosya|dizin|-&gt;...   bellekte round-trip doğrula
+ *   smartrle v [seçenekler] &lt;dosya|dizin|-&gt;...   .srle dosyalarını açmadan CRC32C ile doğrula (-F: açarak, içerik CRC'si de)
+ *   smartrle bench [seçenekler] &lt;dosya|dizin&gt;... tekrarlı ölçüm
+ *
+ * Seçenekler: -j N (paralel dosya), -s MB (segment boyutu), -l 1-9 (seviye; 1 hızlı, 9 küçük),
+ *             -o dizin, -f (üzerine yaz), -v (aşama süreleri), -n tur (bench), -F (v: tam doğrulama)
+ *
+ * Çıktı, art arda yazılmış ikili konteynerlerdir (her segment bir compressToBytes çıktısı).
+ */
+public class SmartRLECli {
+
+    static final String EXT = ".srle";
+    static final int CHUNK_HISTORY_LINES = 1 << 16; // lines a segment may reference in the segments before it
+
+    private String command;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private int segmentChars = 8 * 1024 * 1024;
+    private int level = 6;
+    private Path outDir;
+    private boolean force;
+    private boolean verbose;
+    private boolean fullVerify;
+    private int rounds = 3;
+    private final List<String> inputs = new ArrayList<>();
+
+    private final Map<String, LongAdder> stageNanos = new ConcurrentSkipListMap<>();
+    private final ThreadLocal<SmartRLE> codecs = ThreadLocal.withInitial(() -> {
+        SmartRLE codec = new SmartRLE();
+        codec.setContainerMode(true);
+        codec.setChunkHistory(CHUNK_HISTORY_LINES);
+        codec.setCompressionLevel(level);
+        codec.setMetricsEnabled(verbose);
+        return codec;
+    });
+
+    private static class Result {
+        String name;
+        long inBytes;
+        long outBytes;
+        long nanos;
+        long decodeNanos;
+        int segments;
+        String error;
+    }
+
+    public static void main(String[] args) {
+        SmartRLECli cli = new SmartRLECli();
+        try {
+            cli.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("smartrle: " + e.getMessage());
+            usage();
+            System.exit(2);
+        }
+        System.exit(cli.run());
+    }
+
+    private static void usage() {
+        System.err.println("usage: smartrle c|d|t|v|bench [-j N] [-s MB] [-l 1-9] [-o dir] [-f] [-v] [-n rounds] [-F] <file|dir|->...");
+    }
+
+    void parseArgs(String[] args) {
+        if (args.length == 0) throw new IllegalArgumentException("missing command");
+        command = args[0];
+        if (!Arrays.asList("c", "d", "t", "v", "bench").contains(command)) {
+            throw new IllegalArgumentException("unknown command: " + command);
+        }
+        for (int i = 1; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "-j": jobs = Math.max(1, Integer.parseInt(value(args, ++i, a))); break;
+                case "-s": segmentChars = Math.max(1, Integer.parseInt(value(args, ++i, a))) * 1024 * 1024; break;
+                case "-l": level = Integer.parseInt(value(args, ++i, a)); break;
+                case "-o": outDir = Paths.get(value(args, ++i, a)); break;
+                case "-n": rounds = Math.max(1, Integer.parseInt(value(args, ++i, a))); break;
+                case "-f": force = true; break;
+                case "-v": verbose = true; break;
+                case "-F": fullVerify = true; break;
+                default:
+                    if (a.startsWith("-") && !a.equals("-")) throw new IllegalArgumentException("unknown option: " + a);
+                    inputs.add(a);
+            }
+        }
+        if (level < 1 || level > 9) throw new IllegalArgumentException("-l needs a level from 1 to 9");
+        if (inputs.isEmpty()) inputs.add("-");
+        if (command.equals("bench") && inputs.contains("-")) {
+            throw new IllegalArgumentException("bench needs files");
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[i];
+    }
+
+    int run() {
+        if (inputs.size() == 1 && inputs.get(0).equals("-")) {
+            return runStdin();
+        }
+        List<Path> files;
+        try {
+            files = collectFiles();
+        } catch (IOException e) {
+            System.err.println("smartrle: " + e.getMessage());
+            return 1;
+        }
+        if (files.isEmpty()) {
+            System.err.println("smartrle: no input files");
+            return 1;
+        }
+
+        long t0 = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(jobs, files.size()));
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Path f : files) {
+            futures.add(pool.submit(() -> processFile(f)));
+        }
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> f : futures) {
+            try {
+                Result r = f.get();
+                results.add(r);
+                printResult(System.out, r);
+            } catch (InterruptedException | ExecutionException e) {
+                Result r = new Result();
+                r.name = "?";
+                r.error = String.valueOf(e.getCause() == null ? e : e.getCause());
+                results.add(r);
+                printResult(System.out, r);
+            }
+        }
+        pool.shutdown();
+        long wall = System.nanoTime() - t0;
+        return printSummary(System.out, results, wall);
+    }
+
+    private List<Path> collectFiles() throws IOException {
+        List<Path> out = new ArrayList<>();
+        for (String in : inputs) {
+            Path p = Paths.get(in);
+            if (Files.isDirectory(p)) {
+                try (Stream<Path> walk = Files.walk(p)) {
+                    walk.filter(Files::isRegularFile).filter(this::accepts).sorted().forEach(out::add);
+                }
+            } else if (Files.isRegularFile(p)) {
+                out.add(p);
+            } else {
+                throw new NoSuchFileException(in);
+            }
+        }
+        return out;
+    }
+
+    // directory walks only pick files the command can act on
+    private boolean accepts(Path p) {
+        boolean packed = p.getFileName().toString().endsWith(EXT);
+        return command.equals("d") || command.equals("v") ? packed : !packed;
+    }
+
+    private Result processFile(Path file) {
+        Result r = new Result();
+        r.name = file.toString();
+        try {
+            byte[] in = Files.readAllBytes(file);
+            r.inBytes = in.length;
+            switch (command) {
+                case "c": {
+                    Path target = target(file, file.getFileName() + EXT);
+                    long t = System.nanoTime();
+                    byte[] out = compress(in);
+                    r.nanos = System.nanoTime() - t;
+                    r.outBytes = out.length;
+                    write(target, out);
+                    break;
+                }
+                case "d": {
+                    String name = file.getFileName().toString();
+                    if (!name.endsWith(EXT)) throw new IOException("not a " + EXT + " file");
+                    Path target = target(file, name.substring(0, name.length() - EXT.length()));
+                    long t = System.nanoTime();
+                    byte[] out = decompress(in);
+                    r.nanos = System.nanoTime() - t;
+                    r.outBytes = out.length;
+                    write(target, out);
+                    break;
+                }
+                case "v": {
+                    long t = System.nanoTime();
+                    r.segments = verify(in);
+                    r.nanos = System.nanoTime() - t;
+                    break;
+                }
+                default:
+                    roundTrip(in, r, command.equals("bench") ? rounds : 1);
+            }
+        } catch (Exception e) {
+            r.error = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+        return r;
+    }
+
+    private void roundTrip(byte[] in, Result r, int n) throws IOException {
+        long bestC = Long.MAX_VALUE;
+        long bestD = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            long t = System.nanoTime();
+            byte[] packed = compress(in);
+            long t1 = System.nanoTime();
+            byte[] back = decompress(packed);
+            long t2 = System.nanoTime();
+            if (!Arrays.equals(in, back)) throw new IOException("round-trip mismatch");
+            r.outBytes = packed.length;
+            bestC = Math.min(bestC, t1 - t);
+            bestD = Math.min(bestD, t2 - t1);
+        }
+        r.nanos = bestC;
+        r.decodeNanos = bestD;
+    }
+
+    private Path target(Path source, String name) throws IOException {
+        Path dir = outDir != null ? outDir : source.toAbsolutePath().getParent();
+        Path target = dir.resolve(name);
+        if (!force && Files.exists(target)) throw new FileAlreadyExistsException(target.toString());
+        return target;
+    }
+
+    private static void write(Path target, byte[] data) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Files.write(target, data);
+    }
+
+    byte[] compress(byte[] in) throws IOException {
+        String text = decodeUtf8(in);
+        SmartRLE codec = codecs.get();
+        codec.resetChunkHistory(); // each file is its own chunk stream
+        ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 4 + 64);
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + segmentChars);
+            if (end < text.length()) {
+                int nl = text.indexOf('\n', end);
+                end = nl < 0 ? text.length() : nl + 1;
+            }
+            byte[] seg = codec.compressToBytes(text.substring(start, end));
+            recordStages(codec);
+            out.write(seg);
+            start = end;
+        }
+        return out.toByteArray();
+    }
+
+    byte[] decompress(byte[] in) {
+        SmartRLE codec = codecs.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(in.length * 4);
+        int pos = 0;
+        while (pos < in.length) {
+            int len = SmartRLE.binaryContainerLength(in, pos);
+            byte[] seg = pos == 0 && len == in.length ? in : Arrays.copyOfRange(in, pos, pos + len);
+            byte[] text = codec.decompressBytes(seg).getBytes(StandardCharsets.UTF_8);
+            recordStages(codec);
+            out.write(text, 0, text.length);
+            pos += len;
+        }
+        return out.toByteArray();
+    }
+
+    // fast: stored CRC32C only, nothing decoded; -F: every segment is decoded in order and its content CRC checked
+    int verify(byte[] in) {
+        if (!fullVerify) return SmartRLE.verify(in);
+        SmartRLE codec = codecs.get();
+        int segments = 0;
+        int pos = 0;
+        while (pos < in.length) {
+            int len = SmartRLE.binaryContainerLength(in, pos);
+            codec.decompressBytes(pos == 0 && len == in.length ? in : Arrays.copyOfRange(in, pos, pos + len));
+            recordStages(codec);
+            pos += len;
+            segments++;
+        }
+        return segments;
+    }
+
+    // SmartRLE works on text: refuse input that would not survive a UTF-8 round trip
+    private static String decodeUtf8(byte[] in) throws IOException {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(in)).toString();
+        } catch (CharacterCodingException e) {
+            throw new IOException("input is not valid UTF-8");
+        }
+    }
+
+    private void recordStages(SmartRLE codec) {
+        SmartRLE.CompressionMetrics m = codec.getLastMetrics();
+        if (m == null) return;
+        for (SmartRLE.StageMetrics s : m.stages.values()) {
+            stageNanos.computeIfAbsent(m.operation + "." + s.stage, k -> new LongAdder()).add(s.nanos);
+        }
+    }
+
+    private int runStdin() {
+        if (outDir != null) System.err.println("smartrle: -o ignored for stdin");
+        Result r = new Result();
+        r.name = "<stdin>";
+        long t0 = System.nanoTime();
+        try {
+            byte[] in = System.in.readAllBytes();
+            r.inBytes = in.length;
+            if (command.equals("t")) {
+                roundTrip(in, r, 1);
+            } else if (command.equals("v")) {
+                long t = System.nanoTime();
+                r.segments = verify(in);
+                r.nanos = System.nanoTime() - t;
+            } else {
+                long t = System.nanoTime();
+                byte[] out = command.equals("c") ? compress(in) : decompress(in);
+                r.nanos = System.nanoTime() - t;
+                r.outBytes = out.length;
+                OutputStream stdout = System.out;
+                stdout.write(out);
+                stdout.flush();
+            }
+        } catch (Exception e) {
+            r.error = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+        // stdout carries data for c/d, so the report goes to stderr
+        PrintStream report = command.equals("t") || command.equals("v") ? System.out : System.err;
+        printResult(report, r);
+        return printSummary(report, Collections.singletonList(r), System.nanoTime() - t0);
+    }
+
+    private void printResult(PrintStream out, Result r) {
+        if (r.error != null) {
+            out.println(String.format("%-40s FAILED: %s", r.name, r.error));
+            return;
+        }
+        if (command.equals("v")) {
+            out.println(String.format("%-40s %12d bytes  %6d segments  %8.2f MB/s  OK",
+                r.name, r.inBytes, r.segments, mbps(r.inBytes, r.nanos)));
+        } else if (command.equals("t") || command.equals("bench")) {
+            out.println(String.format("%-40s %12d -> %12d  %6.2f%%  c %8.2f MB/s  d %8.2f MB/s  OK",
+                r.name, r.inBytes, r.outBytes, ratio(r.outBytes, r.inBytes), mbps(r.inBytes, r.nanos), mbps(r.inBytes, r.decodeNanos)));
+        } else {
+            long raw = command.equals("c") ? r.inBytes : r.outBytes;
+            out.println(String.format("%-40s %12d -> %12d  %6.2f%%  %8.2f MB/s",
+                r.name, r.inBytes, r.outBytes, command.equals("c") ? ratio(r.outBytes, r.inBytes) : ratio(r.inBytes, r.outBytes),
+                mbps(raw, r.nanos)));
+        }
+    }
+
+    private int printSummary(PrintStream out, List<Result> results, long wallNanos) {
+        long in = 0, outBytes = 0, cpu = 0;
+        int failed = 0;
+        for (Result r : results) {
+            if (r.error != null) {
+                failed++;
+                continue;
+            }
+            in += r.inBytes;
+            outBytes += r.outBytes;
+            cpu += r.nanos + r.decodeNanos;
+        }
+        if (command.equals("v")) {
+            out.println(String.format("Total: %d files, %d failed, %d bytes verified, %.2f MB/s wall",
+                results.size(), failed, in, mbps(in, wallNanos)));
+            return failed == 0 ? 0 : 1;
+        }
+        long raw = command.equals("d") ? outBytes : in;
+        long packed = command.equals("d") ? in : outBytes;
+        out.println(String.format("Total: %d files, %d failed, %d -> %d bytes (%.2f%%), %.2f MB/s wall, %.2f MB/s per thread",
+            results.size(), failed, raw, packed, ratio(packed, raw), mbps(raw, wallNanos), mbps(raw, cpu)));
+        if (verbose && !stageNanos.isEmpty()) {
+            out.println("Stage timings (all files):");
+            stageNanos.forEach((stage, nanos) ->
+                out.println(String.format("  %-24s %10.2f ms", stage, nanos.sum() / 1_000_000.0)));
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static double ratio(long part, long whole) {
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+
+    private static double mbps(long bytes, long nanos) {
+        return nanos <= 0 ? 0.0 : (bytes / 1_000_000.0) / (nanos / 1_000_000_000.0);
+    }
+}
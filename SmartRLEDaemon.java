@@ -0,0 +1,283 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SmartRLEDaemon - Yerel sıkıştırma sunucusu
+ *
+ * JVM'i her batch için yeniden başlatmadan (sıcak JIT, havuzlanmış codec'ler) Java dışı
+ * log göndericilerine compress/decompress sunar. TCP ya da Unix domain socket dinler.
+ *
+ * Çerçeve (büyük endian):
+ *   istek:  op(1) uzunluk(4) yük
+ *   yanıt:  durum(1) uzunluk(4) yük      durum 0 = OK, 1 = hata (yük: UTF-8 mesaj)
+ *
+ * op: 'C' UTF-8 metin -> compressToBytes, 'D' ikili konteyner -> UTF-8 metin,
+ *     'P' ping (yük aynen döner), 'S' istatistik (UTF-8 metin)
+ *
+ * Kullanım: java SmartRLEDaemon tcp:127.0.0.1:7433 | unix:/tmp/smartrle.sock [bağlantı] [codec]
+ */
+public class SmartRLEDaemon implements AutoCloseable {
+
+    public static final byte OP_COMPRESS = 'C';
+    public static final byte OP_DECOMPRESS = 'D';
+    public static final byte OP_PING = 'P';
+    public static final byte OP_STATS = 'S';
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    public static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private final SocketAddress address;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    private final int maxConnections;
+    private final BlockingQueue<SmartRLE> codecPool;
+    private volatile boolean running = true;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    /**
+     * @param spec           "tcp:host:port" ya da "unix:/yol/soket"
+     * @param maxConnections aynı anda servis edilen bağlantı sayısı; fazlası hata çerçevesiyle kapatılır
+     * @param codecs         havuzdaki SmartRLE örneği sayısı (eşzamanlı istek sınırı)
+     */
+    public SmartRLEDaemon(String spec, int maxConnections, int codecs) throws IOException {
+        this.address = parseAddress(spec);
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        this.codecPool = new ArrayBlockingQueue<>(codecs);
+        for (int i = 0; i < codecs; i++) {
+            SmartRLE codec = new SmartRLE();
+            codec.setContainerMode(true);
+            codecPool.add(codec);
+        }
+        this.maxConnections = maxConnections;
+        AtomicInteger ids = new AtomicInteger();
+        this.connections = Executors.newFixedThreadPool(maxConnections, r -> {
+            Thread t = new Thread(r, "smartrle-conn-" + ids.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * "tcp:host:port" / "unix:/yol" çözümler (client tarafı da kullanır)
+     */
+    public static SocketAddress parseAddress(String spec) {
+        if (spec.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(spec.substring(5));
+        }
+        String hostPort = spec.startsWith("tcp:") ? spec.substring(4) : spec;
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("Expected tcp:host:port or unix:/path, got " + spec);
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    public static SocketChannel connect(String spec) throws IOException {
+        SocketAddress addr = parseAddress(spec);
+        return addr instanceof UnixDomainSocketAddress
+            ? SocketChannel.open(addr)
+            : SocketChannel.open((InetSocketAddress) addr);
+    }
+
+    public SocketAddress getAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Kapatılana kadar bağlantı kabul eder
+     */
+    public void serve() throws IOException {
+        while (running) {
+            SocketChannel ch;
+            try {
+                ch = server.accept();
+            } catch (IOException e) {
+                if (!running) return;
+                throw e;
+            }
+            // counted here, not in handle(): a queued connection would otherwise wait unanswered
+            if (openConnections.incrementAndGet() > maxConnections) {
+                openConnections.decrementAndGet();
+                refuse(ch);
+                continue;
+            }
+            try {
+                connections.execute(() -> handle(ch));
+            } catch (RejectedExecutionException e) {
+                openConnections.decrementAndGet();
+                ch.close();
+            }
+        }
+    }
+
+    // over the limit: one error frame, then close
+    private void refuse(SocketChannel ch) {
+        refused.incrementAndGet();
+        try (SocketChannel c = ch) {
+            writeFrame(c, STATUS_ERROR, ("too many connections: " + maxConnections).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // client already gone
+        }
+    }
+
+    private void handle(SocketChannel ch) {
+        ByteBuffer head = ByteBuffer.allocate(5);
+        try (SocketChannel c = ch) {
+            while (running) {
+                head.clear();
+                if (!readFully(c, head, true)) return; // clean EOF between frames
+                head.flip();
+                byte op = head.get();
+                int len = head.getInt();
+                if (len < 0 || len > MAX_FRAME) {
+                    writeFrame(c, STATUS_ERROR, ("frame too large: " + len).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                ByteBuffer body = ByteBuffer.allocate(len);
+                readFully(c, body, false);
+                requests.incrementAndGet();
+                bytesIn.addAndGet(len);
+                byte[] reply;
+                byte status = STATUS_OK;
+                long t0 = System.nanoTime();
+                try {
+                    reply = execute(op, body.array());
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                    status = STATUS_ERROR;
+                    reply = String.valueOf(e).getBytes(StandardCharsets.UTF_8);
+                }
+                busyNanos.addAndGet(System.nanoTime() - t0);
+                bytesOut.addAndGet(reply.length);
+                writeFrame(c, status, reply);
+            }
+        } catch (IOException e) {
+            // client went away mid-frame; nothing to answer
+        } finally {
+            openConnections.decrementAndGet();
+        }
+    }
+
+    private byte[] execute(byte op, byte[] payload) throws InterruptedException {
+        switch (op) {
+            case OP_PING:
+                return payload;
+            case OP_STATS:
+                return stats().getBytes(StandardCharsets.UTF_8);
+            case OP_COMPRESS:
+            case OP_DECOMPRESS:
+                SmartRLE codec = codecPool.take();
+                try {
+                    return op == OP_COMPRESS
+                        ? codec.compressToBytes(new String(payload, StandardCharsets.UTF_8))
+                        : codec.decompressBytes(payload).getBytes(StandardCharsets.UTF_8);
+                } finally {
+                    codecPool.add(codec);
+                }
+            default:
+                throw new IllegalArgumentException("unknown op: " + (char) op);
+        }
+    }
+
+    public String stats() {
+        return String.format("connections=%d refused=%d requests=%d errors=%d bytesIn=%d bytesOut=%d busyMs=%.1f %s %s",
+            openConnections.get(), refused.get(), requests.get(), errors.get(), bytesIn.get(), bytesOut.get(), busyNanos.get() / 1_000_000.0,
+            SmartRLE.HeaderCache.shared(), SmartRLE.BufferPool.shared());
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        connections.shutdownNow();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    // ===== Framing (shared with SmartRLELoadClient) =====
+
+    static void writeFrame(SocketChannel c, byte code, byte[] payload) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(5);
+        head.put(code).putInt(payload.length).flip();
+        ByteBuffer[] frame = { head, ByteBuffer.wrap(payload) };
+        while (frame[1].hasRemaining() || head.hasRemaining()) {
+            c.write(frame);
+        }
+    }
+
+    // returns false on EOF before the first byte when eofAllowed
+    static boolean readFully(SocketChannel c, ByteBuffer buf, boolean eofAllowed) throws IOException {
+        while (buf.hasRemaining()) {
+            if (c.read(buf) < 0) {
+                if (eofAllowed && buf.position() == 0) return false;
+                throw new EOFException("connection closed mid-frame");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tek istek/yanıt; hata durumunda IOException
+     */
+    static byte[] call(SocketChannel c, byte op, byte[] payload) throws IOException {
+        writeFrame(c, op, payload);
+        ByteBuffer head = ByteBuffer.allocate(5);
+        readFully(c, head, false);
+        head.flip();
+        byte status = head.get();
+        int len = head.getInt();
+        if (len < 0 || len > MAX_FRAME) throw new IOException("bad frame length: " + len);
+        ByteBuffer body = ByteBuffer.allocate(len);
+        readFully(c, body, false);
+        if (status != STATUS_OK) {
+            throw new IOException("daemon error: " + new String(body.array(), StandardCharsets.UTF_8));
+        }
+        return body.array();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String spec = args.length > 0 ? args[0] : "tcp:127.0.0.1:7433";
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxConnections = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int codecs = args.length > 2 ? Integer.parseInt(args[2]) : cores;
+        SmartRLEDaemon daemon = new SmartRLEDaemon(spec, maxConnections, codecs);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                daemon.close();
+            } catch (IOException ignore) {
+                // exiting anyway
+            }
+        }));
+        System.out.println("SmartRLE daemon listening on " + daemon.getAddress()
+            + " (connections=" + maxConnections + ", codecs=" + codecs + ")");
+        daemon.serve();
+    }
+}
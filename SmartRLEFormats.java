@@ -0,0 +1,999 @@
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * SmartRLEFormats - Log formatı eklentileri (SPI)
+ *
+ * Her eklenti bir satırı şablon + alan değerlerine ayıran hızlı bir ayrıştırıcı sağlar. Şablon,
+ * değerlerin yerine SLOT anahtar SLOT_END işaretleri taşıyan satırın kendisidir; değerler anahtar
+ * başına sütunlarda tutulur. Geri çevirme genel: şablondaki yuvalar sütunlardan sırayla doldurulur,
+ * bu yüzden açma tarafı eklentiye ihtiyaç duymaz.
+ *
+ * Yerleşik eklentiler: nginx ($request_time ile), json (JSON lines), syslog (RFC 5424), logfmt.
+ * Ek eklentiler register(...) ya da ServiceLoader (META-INF/services/SmartRLEFormats$LogFormat) ile eklenir.
+ */
+public final class SmartRLEFormats {
+
+    public static final char SLOT = '\u0001';
+    public static final char SLOT_END = '\u0002';
+    /** Otomatik algılamada örneklenen en fazla satır */
+    public static final int SAMPLE_LINES = 64;
+    /** Otomatik algılama için örnekte ayrıştırılabilir olması gereken satır oranı */
+    public static final double DETECT_RATIO = 0.8;
+
+    private static final List<LogFormat> FORMATS = new ArrayList<>();
+
+    static {
+        FORMATS.add(new NginxFormat());
+        FORMATS.add(new JsonFormat());
+        FORMATS.add(new SyslogFormat());
+        FORMATS.add(new LogfmtFormat());
+        try {
+            for (LogFormat f : ServiceLoader.load(LogFormat.class)) FORMATS.add(f);
+        } catch (ServiceConfigurationError ignore) {
+            // a broken provider must not disable the built-ins
+        }
+    }
+
+    private SmartRLEFormats() {
+    }
+
+    /**
+     * Satır formatı eklentisi
+     */
+    public interface LogFormat {
+        /** Header'daki FMT: adı */
+        String name();
+
+        /** Satırı out üzerinde soldan sağa tüketir; satır bu formatta değilse false */
+        boolean parse(String line, LineBuilder out);
+    }
+
+    /**
+     * Ayrıştırma sırasında şablonu ve değerleri toplar.
+     * Çağrılar satırı soldan sağa, boşluksuz tüketmek zorundadır; böylece şablon + değerler her zaman satırı aynen verir.
+     */
+    public static final class LineBuilder {
+        private String line;
+        private int cursor;
+        private final StringBuilder template = new StringBuilder();
+        private final List<String> keys = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+
+        void reset(String line) {
+            this.line = line;
+            this.cursor = 0;
+            template.setLength(0);
+            keys.clear();
+            values.clear();
+        }
+
+        /** line[cursor, end) aynen şablona */
+        public void literalTo(int end) {
+            template.append(line, cursor, end);
+            cursor = end;
+        }
+
+        /** line[cursor, end) key sütununa bir değer */
+        public void fieldTo(String key, int end) {
+            template.append(SLOT).append(key).append(SLOT_END);
+            keys.add(key);
+            values.add(line.substring(cursor, end));
+            cursor = end;
+        }
+
+        public int cursor() {
+            return cursor;
+        }
+
+        boolean complete() {
+            return cursor == line.length() && !keys.isEmpty();
+        }
+
+        String template() {
+            return template.toString();
+        }
+
+        List<String> keys() {
+            return keys;
+        }
+
+        List<String> values() {
+            return values;
+        }
+    }
+
+    /**
+     * Kayıtlı eklentiler (yerleşikler önce)
+     */
+    public static synchronized List<LogFormat> formats() {
+        return new ArrayList<>(FORMATS);
+    }
+
+    public static synchronized void register(LogFormat format) {
+        FORMATS.removeIf(f -> f.name().equals(format.name()));
+        FORMATS.add(format);
+    }
+
+    public static synchronized LogFormat byName(String name) {
+        for (LogFormat f : FORMATS) {
+            if (f.name().equals(name)) return f;
+        }
+        return null;
+    }
+
+    /**
+     * İlk satırları örnekler; en çok satırı ayrıştıran eklenti DETECT_RATIO'yu geçiyorsa onu döner
+     */
+    public static LogFormat detect(String input) {
+        List<String> sample = new ArrayList<>(SAMPLE_LINES);
+        int pos = 0;
+        while (pos < input.length() && sample.size() < SAMPLE_LINES) {
+            int nl = input.indexOf('\n', pos);
+            int end = nl < 0 ? input.length() : nl;
+            int stop = end > pos && input.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (stop > pos) sample.add(input.substring(pos, stop));
+            pos = end + 1;
+        }
+        if (sample.isEmpty()) return null;
+        LineBuilder b = new LineBuilder();
+        LogFormat best = null;
+        int bestHits = 0;
+        for (LogFormat f : formats()) {
+            int hits = 0;
+            for (String l : sample) {
+                if (accepts(f, l, b)) hits++;
+            }
+            if (hits > bestHits) {
+                best = f;
+                bestHits = hits;
+            }
+        }
+        return bestHits >= DETECT_RATIO * sample.size() ? best : null;
+    }
+
+    static boolean accepts(LogFormat format, String line, LineBuilder b) {
+        if (line.indexOf(SLOT) >= 0 || line.indexOf(SLOT_END) >= 0) return false;
+        b.reset(line);
+        try {
+            return format.parse(line, b) && b.complete();
+        } catch (RuntimeException e) {
+            return false; // a plugin bug must not break compression
+        }
+    }
+
+    // ===== Column codec =====
+
+    /**
+     * Sütunu header metnine çevirir. Aday kodlamalardan en kısası seçilir:
+     * tamsayı (I, varint + gerekirse delta), zaman damgası (T, delta), sözlük (D) ya da düz liste (S)
+     */
+    static String encodeColumn(List<String> values) {
+        String best = encodePlain(values);
+        String candidate = encodeInts(values);
+        if (candidate != null && candidate.length() < best.length()) best = candidate;
+        candidate = encodeTimestamps(values);
+        if (candidate != null && candidate.length() < best.length()) best = candidate;
+        candidate = encodeDictionary(values);
+        if (candidate != null && candidate.length() < best.length()) best = candidate;
+        return best;
+    }
+
+    static List<String> decodeColumn(String encoded) {
+        char kind = encoded.isEmpty() ? 'S' : encoded.charAt(0);
+        switch (kind) {
+            case 'D': {
+                int tab = encoded.indexOf('\t');
+                byte[] idx = Base64.getDecoder().decode(encoded.substring(1, tab));
+                List<String> dict = splitJoined(encoded, tab + 1);
+                int[] pos = {0};
+                int n = readVarint(idx, pos);
+                List<String> out = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) out.add(dict.get(readVarint(idx, pos)));
+                return out;
+            }
+            case 'I':
+                return decodeInts(Base64.getDecoder().decode(encoded.substring(1)));
+            case 'T':
+                return decodeTimestamps(encoded);
+            case 'S':
+                return splitJoined(encoded, 1);
+            default:
+                throw new IllegalArgumentException("Unknown column kind: " + kind);
+        }
+    }
+
+    private static String encodePlain(List<String> values) {
+        StringBuilder sb = new StringBuilder("S");
+        appendJoined(sb, values);
+        return sb.toString();
+    }
+
+    // null when the column is too diverse for a dictionary to pay off
+    private static String encodeDictionary(List<String> values) {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (String v : values) {
+            ids.putIfAbsent(v, ids.size());
+            if (ids.size() * 2 > values.size() + 1) return null;
+        }
+        ByteArrayOutputStream idx = new ByteArrayOutputStream(values.size() + 4);
+        writeVarint(idx, values.size());
+        for (String v : values) writeVarint(idx, ids.get(v));
+        StringBuilder sb = new StringBuilder("D");
+        sb.append(Base64.getEncoder().encodeToString(idx.toByteArray())).append('\t');
+        appendJoined(sb, ids.keySet());
+        return sb.toString();
+    }
+
+    // ===== Typed columns =====
+
+    private static final int INT_PLAIN = 0;
+    private static final int INT_DELTA = 1;
+
+    /**
+     * I: count | mod (0 düz, 1 delta) | zigzag varint değerler. Yalnız kanonik tamsayılar (Long.toString ile aynı yazım).
+     */
+    private static String encodeInts(List<String> values) {
+        if (values.isEmpty()) return null;
+        long[] v = new long[values.size()];
+        for (int i = 0; i < v.length; i++) {
+            String s = values.get(i);
+            if (!isCanonicalLong(s)) return null;
+            v[i] = Long.parseLong(s);
+        }
+        int plainSize = 0;
+        int deltaSize = 0;
+        for (int i = 0; i < v.length; i++) {
+            plainSize += varLongSize(zigzag(v[i]));
+            deltaSize += varLongSize(zigzag(i == 0 ? v[0] : v[i] - v[i - 1]));
+        }
+        int mode = deltaSize < plainSize ? INT_DELTA : INT_PLAIN;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(plainSize, deltaSize) + 8);
+        writeVarint(out, v.length);
+        writeVarint(out, mode);
+        long prev = 0;
+        for (long x : v) {
+            writeVarLong(out, zigzag(mode == INT_DELTA ? x - prev : x));
+            prev = x;
+        }
+        return "I" + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    private static List<String> decodeInts(byte[] data) {
+        int[] pos = {0};
+        int n = readVarint(data, pos);
+        int mode = readVarint(data, pos);
+        List<String> out = new ArrayList<>(n);
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            long x = unzigzag(readVarLong(data, pos));
+            if (mode == INT_DELTA) x += prev;
+            out.add(Long.toString(x));
+            prev = x;
+        }
+        return out;
+    }
+
+    // "0", "-12", "345" but not "007", "-0", "+1" or anything that would not survive Long.toString
+    static boolean isCanonicalLong(String s) {
+        int n = s.length();
+        int start = n > 0 && s.charAt(0) == '-' ? 1 : 0;
+        if (n == start || n - start > 18 || !isDigits(s, start, n)) return false;
+        if (s.charAt(start) == '0') return n == 1;
+        return true;
+    }
+
+    /**
+     * T: count | biçim sayısı | (biçim başına: tür, kesir hanesi, son ek) | [biçim indeksleri] | zigzag delta birimler.
+     * Birim, sütundaki en uzun kesir hanesine göre saniyenin kesridir; zaman dilimi son eki aynen saklanır (dönüşüm yok).
+     */
+    private static String encodeTimestamps(List<String> values) {
+        if (values.isEmpty()) return null;
+        Map<String, Integer> shapes = new LinkedHashMap<>();
+        int[] shapeOf = new int[values.size()];
+        long[] seconds = new long[values.size()];
+        int[] fraction = new int[values.size()];
+        int maxDigits = 0;
+        List<TimestampShape> shapeList = new ArrayList<>();
+        TimestampShape parsed = new TimestampShape();
+        for (int i = 0; i < shapeOf.length; i++) {
+            String v = values.get(i);
+            if (!parsed.parse(v)) return null;
+            Integer id = shapes.get(parsed.key());
+            if (id == null) {
+                if (shapes.size() >= 16) return null;
+                id = shapes.size();
+                shapes.put(parsed.key(), id);
+                shapeList.add(parsed.copy());
+            }
+            shapeOf[i] = id;
+            seconds[i] = parsed.epochSecond;
+            fraction[i] = parsed.fraction;
+            maxDigits = Math.max(maxDigits, parsed.fractionDigits);
+        }
+        long scale = POW10[maxDigits];
+        for (long sec : seconds) {
+            if (Math.abs(sec) > (Long.MAX_VALUE >> 2) / scale) return null; // units and their deltas must not overflow
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(values.size() * 2 + 16);
+        writeVarint(out, values.size());
+        writeVarint(out, maxDigits);
+        writeVarint(out, shapeList.size());
+        for (TimestampShape sh : shapeList) {
+            writeVarint(out, sh.kind);
+            writeVarint(out, sh.fractionDigits);
+        }
+        if (shapeList.size() > 1) {
+            for (int id : shapeOf) writeVarint(out, id);
+        }
+        long prev = 0;
+        for (int i = 0; i < shapeOf.length; i++) {
+            int digits = shapeList.get(shapeOf[i]).fractionDigits;
+            long units = seconds[i] * scale + fraction[i] * POW10[maxDigits - digits];
+            writeVarLong(out, zigzag(units - prev));
+            prev = units;
+        }
+        List<String> suffixes = new ArrayList<>(shapeList.size());
+        for (TimestampShape sh : shapeList) suffixes.add(sh.suffix);
+        StringBuilder sb = new StringBuilder("T");
+        sb.append(Base64.getEncoder().encodeToString(out.toByteArray())).append('\t');
+        appendJoined(sb, suffixes);
+        return sb.toString();
+    }
+
+    private static List<String> decodeTimestamps(String encoded) {
+        int tab = encoded.indexOf('\t');
+        byte[] data = Base64.getDecoder().decode(encoded.substring(1, tab));
+        List<String> suffixes = splitJoined(encoded, tab + 1);
+        int[] pos = {0};
+        int n = readVarint(data, pos);
+        int maxDigits = readVarint(data, pos);
+        int shapeCount = readVarint(data, pos);
+        TimestampShape[] shapes = new TimestampShape[shapeCount];
+        for (int s = 0; s < shapeCount; s++) {
+            shapes[s] = new TimestampShape();
+            shapes[s].kind = readVarint(data, pos);
+            shapes[s].fractionDigits = readVarint(data, pos);
+            shapes[s].suffix = suffixes.get(s);
+        }
+        int[] shapeOf = new int[n];
+        if (shapeCount > 1) {
+            for (int i = 0; i < n; i++) shapeOf[i] = readVarint(data, pos);
+        }
+        long scale = POW10[maxDigits];
+        List<String> out = new ArrayList<>(n);
+        StringBuilder sb = new StringBuilder(40);
+        long units = 0;
+        for (int i = 0; i < n; i++) {
+            units += unzigzag(readVarLong(data, pos));
+            TimestampShape sh = shapes[shapeOf[i]];
+            long sec = Math.floorDiv(units, scale);
+            long frac = Math.floorMod(units, scale) / POW10[maxDigits - sh.fractionDigits];
+            sb.setLength(0);
+            sh.format(sb, sec, (int) frac);
+            out.add(sb.toString());
+        }
+        return out;
+    }
+
+    private static final long[] POW10 = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L,
+        10_000_000L, 100_000_000L, 1_000_000_000L};
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+        "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    /**
+     * Tanınan zaman damgası yazımları (yerel saat + aynen saklanan son ek):
+     *   ISO_T     2023-10-10T13:55:36[.fff...]&lt;son ek&gt;   (Z, +03:00, ...)
+     *   ISO_SPACE 2023-10-10 13:55:36[.fff...]&lt;son ek&gt;
+     *   CLF       10/Oct/2023:13:55:36&lt;son ek&gt;             (nginx/Apache $time_local, ör. " +0000")
+     * Ayrıştırma ancak yeniden yazım girdiyle bire bir aynıysa kabul edilir.
+     */
+    static final class TimestampShape {
+        static final int ISO_T = 0;
+        static final int ISO_SPACE = 1;
+        static final int CLF = 2;
+        private static final int MAX_SUFFIX = 8;
+
+        int kind;
+        int fractionDigits;
+        String suffix;
+        long epochSecond;
+        int fraction;
+        private final StringBuilder check = new StringBuilder(40);
+
+        String key() {
+            return kind + "/" + fractionDigits + "/" + suffix;
+        }
+
+        TimestampShape copy() {
+            TimestampShape c = new TimestampShape();
+            c.kind = kind;
+            c.fractionDigits = fractionDigits;
+            c.suffix = suffix;
+            return c;
+        }
+
+        boolean parse(String s) {
+            int year;
+            int month;
+            int day;
+            int p;
+            if (s.length() >= 19 && s.charAt(4) == '-' && s.charAt(7) == '-'
+                    && (s.charAt(10) == 'T' || s.charAt(10) == ' ')) {
+                kind = s.charAt(10) == 'T' ? ISO_T : ISO_SPACE;
+                year = num(s, 0, 4);
+                month = num(s, 5, 7);
+                day = num(s, 8, 10);
+                p = 11;
+            } else if (s.length() >= 20 && s.charAt(2) == '/' && s.charAt(6) == '/' && s.charAt(11) == ':') {
+                kind = CLF;
+                day = num(s, 0, 2);
+                month = monthIndex(s, 3) + 1;
+                year = num(s, 7, 11);
+                p = 12;
+            } else {
+                return false;
+            }
+            if (year < 0 || month < 1 || day < 1 || s.charAt(p + 2) != ':' || s.charAt(p + 5) != ':') return false;
+            int hour = num(s, p, p + 2);
+            int minute = num(s, p + 3, p + 5);
+            int second = num(s, p + 6, p + 8);
+            if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) return false;
+            p += 8;
+            fractionDigits = 0;
+            fraction = 0;
+            if (kind != CLF && p < s.length() && s.charAt(p) == '.') {
+                int q = p + 1;
+                while (q < s.length() && q - p - 1 < 9 && s.charAt(q) >= '0' && s.charAt(q) <= '9') q++;
+                fractionDigits = q - p - 1;
+                if (fractionDigits == 0) return false;
+                fraction = num(s, p + 1, q);
+                p = q;
+            }
+            if (s.length() - p > MAX_SUFFIX) return false;
+            suffix = s.substring(p);
+            for (int i = 0; i < suffix.length(); i++) {
+                char c = suffix.charAt(i);
+                if (!(c == 'Z' || c == '+' || c == '-' || c == ':' || c == ' ' || (c >= '0' && c <= '9'))) return false;
+            }
+            epochSecond = daysFromCivil(year, month, day) * 86_400L + hour * 3600L + minute * 60L + second;
+            // rejects impossible dates (Feb 30), which the arithmetic would silently roll over
+            check.setLength(0);
+            format(check, epochSecond, fraction);
+            return check.length() == s.length() && check.indexOf(s) == 0;
+        }
+
+        void format(StringBuilder sb, long epochSec, int frac) {
+            long days = Math.floorDiv(epochSec, 86_400L);
+            int secOfDay = (int) Math.floorMod(epochSec, 86_400L);
+            long z = days + 719_468;
+            long era = Math.floorDiv(z, 146_097);
+            long doe = z - era * 146_097;
+            long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+            long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            long mp = (5 * doy + 2) / 153;
+            int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+            int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+            long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+            if (kind == CLF) {
+                pad(sb, day, 2).append('/').append(MONTHS[month - 1]).append('/');
+                pad(sb, year, 4).append(':');
+            } else {
+                pad(sb, year, 4).append('-');
+                pad(sb, month, 2).append('-');
+                pad(sb, day, 2).append(kind == ISO_T ? 'T' : ' ');
+            }
+            pad(sb, secOfDay / 3600, 2).append(':');
+            pad(sb, secOfDay / 60 % 60, 2).append(':');
+            pad(sb, secOfDay % 60, 2);
+            if (fractionDigits > 0) pad(sb.append('.'), frac, fractionDigits);
+            sb.append(suffix);
+        }
+
+        // Howard Hinnant's days_from_civil
+        private static long daysFromCivil(long y, int m, int d) {
+            y -= m <= 2 ? 1 : 0;
+            long era = Math.floorDiv(y, 400);
+            long yoe = y - era * 400;
+            long doy = (153L * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+            long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+            return era * 146_097 + doe - 719_468;
+        }
+
+        private static StringBuilder pad(StringBuilder sb, long v, int width) {
+            String digits = Long.toString(v);
+            for (int i = digits.length(); i < width; i++) sb.append('0');
+            return sb.append(digits);
+        }
+
+        // -1 unless s[from, to) is all digits
+        private static int num(String s, int from, int to) {
+            if (to > s.length()) return -1;
+            int v = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                v = v * 10 + (c - '0');
+            }
+            return v;
+        }
+
+        private static int monthIndex(String s, int at) {
+            for (int m = 0; m < 12; m++) {
+                if (s.startsWith(MONTHS[m], at)) return m;
+            }
+            return -2;
+        }
+    }
+
+    static void appendJoined(StringBuilder sb, Collection<String> items) {
+        boolean first = true;
+        for (String v : items) {
+            if (!first) sb.append(',');
+            first = false;
+            for (int i = 0; i < v.length(); i++) {
+                char c = v.charAt(i);
+                if (c == '\\' || c == ',') sb.append('\\').append(c);
+                else if (c == '\n') sb.append("\\n");
+                else sb.append(c);
+            }
+        }
+    }
+
+    static List<String> splitJoined(String s, int from) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char e = s.charAt(++i);
+                cur.append(e == 'n' ? '\n' : e);
+            } else if (c == ',') {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        out.add(cur.toString());
+        return out;
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        int v = value;
+        do {
+            int b = v & 0x7F;
+            v >>>= 7;
+            if (v != 0) b |= 0x80;
+            out.write(b);
+        } while (v != 0);
+    }
+
+    static int readVarint(byte[] data, int[] posRef) {
+        int pos = posRef[0];
+        int result = 0;
+        int shift = 0;
+        while (pos < data.length) {
+            int b = data[pos++] & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+        }
+        posRef[0] = pos;
+        return result;
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        long v = value;
+        do {
+            int b = (int) (v & 0x7F);
+            v >>>= 7;
+            if (v != 0) b |= 0x80;
+            out.write(b);
+        } while (v != 0);
+    }
+
+    static long readVarLong(byte[] data, int[] posRef) {
+        int pos = posRef[0];
+        long result = 0;
+        int shift = 0;
+        while (pos < data.length) {
+            int b = data[pos++] & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+        }
+        posRef[0] = pos;
+        return result;
+    }
+
+    private static int varLongSize(long v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) n++;
+        return n;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Şablonu sabit parçalar ve anahtarlar olarak önceden ayrıştırır (açma tarafı)
+     */
+    static final class Template {
+        final String[] literals;  // literals.length == keys.length + 1
+        final String[] keys;
+
+        Template(String template) {
+            List<String> lits = new ArrayList<>();
+            List<String> ks = new ArrayList<>();
+            int start = 0;
+            int i;
+            while ((i = template.indexOf(SLOT, start)) >= 0) {
+                int end = template.indexOf(SLOT_END, i);
+                lits.add(template.substring(start, i));
+                ks.add(template.substring(i + 1, end));
+                start = end + 1;
+            }
+            lits.add(template.substring(start));
+            this.literals = lits.toArray(new String[0]);
+            this.keys = ks.toArray(new String[0]);
+        }
+    }
+
+    // ===== Shared scanners =====
+
+    // index of the closing quote of a "..." starting at open, honouring backslash escapes; -1 if unterminated
+    static int closingQuote(String s, int open) {
+        for (int i = open + 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '"') return i;
+        }
+        return -1;
+    }
+
+    static int nextSpace(String s, int from) {
+        int i = s.indexOf(' ', from);
+        return i < 0 ? s.length() : i;
+    }
+
+    static boolean isDigits(String s, int from, int to) {
+        if (from >= to) return false;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    // ===== Built-in formats =====
+
+    /**
+     * Nginx: combined + $request_time (ör. log_format main '... "$http_user_agent" $request_time')
+     */
+    static final class NginxFormat implements LogFormat {
+        private static final String[] NAMES = {
+            "remote_addr", "ident", "remote_user", "time_local", "request", "status",
+            "body_bytes_sent", "http_referer", "http_user_agent", "request_time"
+        };
+
+        @Override
+        public String name() {
+            return "nginx";
+        }
+
+        @Override
+        public boolean parse(String s, LineBuilder b) {
+            int field = 0;
+            int i = 0;
+            int n = s.length();
+            while (i < n) {
+                if (field > 0) {
+                    if (s.charAt(i) != ' ') return false;
+                    b.literalTo(++i);
+                }
+                if (i >= n) return false;
+                String key = field < NAMES.length ? NAMES[field] : "f" + field;
+                char c = s.charAt(i);
+                if (field == 3) {
+                    if (c != '[') return false;
+                    int close = s.indexOf(']', i);
+                    if (close < 0) return false;
+                    b.literalTo(i + 1);
+                    b.fieldTo(key, close);
+                    b.literalTo(close + 1);
+                    i = close + 1;
+                } else if (field == 4 || field == 7 || field == 8) {
+                    if (c != '"') return false;
+                    int close = closingQuote(s, i);
+                    if (close < 0) return false;
+                    b.literalTo(i + 1);
+                    if (field == 4) request(s, close, b);
+                    else b.fieldTo(key, close);
+                    b.literalTo(close + 1);
+                    i = close + 1;
+                } else {
+                    int end = nextSpace(s, i);
+                    if (end == i) return false;
+                    if (field == 5 && !isDigits(s, i, end)) return false;
+                    if (field == 9 && !isDecimal(s, i, end)) return false;
+                    b.fieldTo(key, end);
+                    i = end;
+                }
+                field++;
+            }
+            return field >= NAMES.length;
+        }
+
+        // "METHOD URI PROTOCOL" splits into three columns when it has exactly that shape
+        private static void request(String s, int close, LineBuilder b) {
+            int from = b.cursor();
+            int sp1 = s.indexOf(' ', from);
+            int sp2 = s.lastIndexOf(' ', close - 1);
+            if (sp1 > from && sp2 > sp1 + 1 && sp2 < close - 1) {
+                b.fieldTo("request_method", sp1);
+                b.literalTo(sp1 + 1);
+                b.fieldTo("request_uri", sp2);
+                b.literalTo(sp2 + 1);
+                b.fieldTo("server_protocol", close);
+            } else {
+                b.fieldTo("request", close);
+            }
+        }
+
+        private static boolean isDecimal(String s, int from, int to) {
+            if (to - from == 1 && s.charAt(from) == '-') return true;
+            int dot = s.indexOf('.', from);
+            if (dot < 0 || dot >= to) return isDigits(s, from, to);
+            return isDigits(s, from, dot) && isDigits(s, dot + 1, to);
+        }
+    }
+
+    /**
+     * RFC 5424 syslog: &lt;PRI&gt;VERSION TIMESTAMP HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA [MSG]
+     */
+    static final class SyslogFormat implements LogFormat {
+        private static final String[] HEADER = {"timestamp", "hostname", "app_name", "procid", "msgid"};
+
+        @Override
+        public String name() {
+            return "syslog";
+        }
+
+        @Override
+        public boolean parse(String s, LineBuilder b) {
+            int n = s.length();
+            if (n < 4 || s.charAt(0) != '<') return false;
+            int gt = s.indexOf('>');
+            if (gt < 2 || gt > 4 || !isDigits(s, 1, gt)) return false;
+            b.literalTo(1);
+            b.fieldTo("pri", gt);
+            b.literalTo(gt + 1);
+            int sp = nextSpace(s, gt + 1);
+            if (!isDigits(s, gt + 1, sp) || sp >= n) return false;
+            b.fieldTo("version", sp);
+            int i = sp;
+            for (String key : HEADER) {
+                if (i >= n || s.charAt(i) != ' ') return false;
+                b.literalTo(++i);
+                int end = nextSpace(s, i);
+                if (end == i) return false;
+                b.fieldTo(key, end);
+                i = end;
+            }
+            if (i >= n || s.charAt(i) != ' ') return false;
+            b.literalTo(++i);
+            int sdEnd = structuredDataEnd(s, i);
+            if (sdEnd < 0) return false;
+            b.fieldTo("structured_data", sdEnd);
+            i = sdEnd;
+            if (i < n) {
+                if (s.charAt(i) != ' ') return false;
+                b.literalTo(i + 1);
+                b.fieldTo("msg", n);
+            }
+            return true;
+        }
+
+        // "-" or one or more [id param="v\]alue"] elements
+        private static int structuredDataEnd(String s, int i) {
+            if (i >= s.length()) return -1;
+            if (s.charAt(i) == '-') return i + 1;
+            int pos = i;
+            while (pos < s.length() && s.charAt(pos) == '[') {
+                boolean quoted = false;
+                int k = pos + 1;
+                for (; k < s.length(); k++) {
+                    char c = s.charAt(k);
+                    if (c == '\\' && quoted) k++;
+                    else if (c == '"') quoted = !quoted;
+                    else if (c == ']' && !quoted) break;
+                }
+                if (k >= s.length()) return -1;
+                pos = k + 1;
+            }
+            return pos == i ? -1 : pos;
+        }
+    }
+
+    /**
+     * logfmt: key=value key="quoted value" ...
+     */
+    static final class LogfmtFormat implements LogFormat {
+        @Override
+        public String name() {
+            return "logfmt";
+        }
+
+        @Override
+        public boolean parse(String s, LineBuilder b) {
+            int n = s.length();
+            int i = 0;
+            int pairs = 0;
+            while (i < n) {
+                if (pairs > 0) {
+                    if (s.charAt(i) != ' ') return false;
+                    int k = i;
+                    while (k < n && s.charAt(k) == ' ') k++;
+                    b.literalTo(k);
+                    i = k;
+                    if (i >= n) break;
+                }
+                int eq = i;
+                while (eq < n) {
+                    char c = s.charAt(eq);
+                    if (c == '=' || c == ' ' || c == '"' || c < ' ') break;
+                    eq++;
+                }
+                if (eq == i || eq >= n || s.charAt(eq) != '=') return false;
+                String key = s.substring(i, eq);
+                b.literalTo(eq + 1);
+                i = eq + 1;
+                if (i < n && s.charAt(i) == '"') {
+                    int close = closingQuote(s, i);
+                    if (close < 0) return false;
+                    b.literalTo(i + 1);
+                    b.fieldTo(key, close);
+                    b.literalTo(close + 1);
+                    i = close + 1;
+                } else {
+                    int end = nextSpace(s, i);
+                    b.fieldTo(key, end);
+                    i = end;
+                }
+                pairs++;
+            }
+            return pairs >= 2;
+        }
+    }
+
+    /**
+     * JSON lines: her satır bir nesne. Anahtarlar, noktalama ve boşluklar şablonda kalır;
+     * skaler değerler yol anahtarlı (a.b, dizi öğeleri a[]) sütunlara gider.
+     */
+    static final class JsonFormat implements LogFormat {
+        private static final int MAX_DEPTH = 32;
+
+        @Override
+        public String name() {
+            return "json";
+        }
+
+        @Override
+        public boolean parse(String s, LineBuilder b) {
+            int i = skipWs(s, 0);
+            if (i >= s.length() || s.charAt(i) != '{') return false;
+            b.literalTo(i);
+            i = value(s, i, "", b, 0);
+            if (i < 0) return false;
+            i = skipWs(s, i);
+            if (i != s.length()) return false;
+            b.literalTo(i);
+            return true;
+        }
+
+        // parses one value at i (whitespace already skipped); returns index after it, or -1
+        private static int value(String s, int i, String path, LineBuilder b, int depth) {
+            if (i >= s.length() || depth > MAX_DEPTH) return -1;
+            char c = s.charAt(i);
+            if (c == '{') {
+                int k = skipWs(s, i + 1);
+                if (k < s.length() && s.charAt(k) == '}') return k + 1;
+                while (true) {
+                    if (k >= s.length() || s.charAt(k) != '"') return -1;
+                    int close = stringEnd(s, k);
+                    if (close < 0) return -1;
+                    String key = s.substring(k + 1, close);
+                    k = skipWs(s, close + 1);
+                    if (k >= s.length() || s.charAt(k) != ':') return -1;
+                    k = skipWs(s, k + 1);
+                    b.literalTo(k);
+                    k = value(s, k, path.isEmpty() ? key : path + "." + key, b, depth + 1);
+                    if (k < 0) return -1;
+                    k = skipWs(s, k);
+                    if (k >= s.length()) return -1;
+                    if (s.charAt(k) == '}') return k + 1;
+                    if (s.charAt(k) != ',') return -1;
+                    k = skipWs(s, k + 1);
+                }
+            }
+            if (c == '[') {
+                int k = skipWs(s, i + 1);
+                if (k < s.length() && s.charAt(k) == ']') return k + 1;
+                String elem = path + "[]";
+                while (true) {
+                    b.literalTo(k);
+                    k = value(s, k, elem, b, depth + 1);
+                    if (k < 0) return -1;
+                    k = skipWs(s, k);
+                    if (k >= s.length()) return -1;
+                    if (s.charAt(k) == ']') return k + 1;
+                    if (s.charAt(k) != ',') return -1;
+                    k = skipWs(s, k + 1);
+                }
+            }
+            b.literalTo(i);
+            if (c == '"') {
+                int close = stringEnd(s, i);
+                if (close < 0) return -1;
+                b.literalTo(i + 1);
+                b.fieldTo(path, close);
+                return close + 1;
+            }
+            int end = i;
+            while (end < s.length()) {
+                char d = s.charAt(end);
+                if (d == ',' || d == '}' || d == ']' || d == ' ' || d == '\t') break;
+                end++;
+            }
+            if (!scalar(s, i, end)) return -1;
+            b.fieldTo(path, end);
+            return end;
+        }
+
+        private static boolean scalar(String s, int from, int to) {
+            String t = s.substring(from, to);
+            if (t.equals("true") || t.equals("false") || t.equals("null")) return true;
+            int k = from;
+            if (k < to && s.charAt(k) == '-') k++;
+            int digits = k;
+            while (k < to && Character.isDigit(s.charAt(k))) k++;
+            if (k == digits) return false;
+            if (k < to && s.charAt(k) == '.') {
+                int frac = ++k;
+                while (k < to && Character.isDigit(s.charAt(k))) k++;
+                if (k == frac) return false;
+            }
+            if (k < to && (s.charAt(k) == 'e' || s.charAt(k) == 'E')) {
+                k++;
+                if (k < to && (s.charAt(k) == '+' || s.charAt(k) == '-')) k++;
+                int exp = k;
+                while (k < to && Character.isDigit(s.charAt(k))) k++;
+                if (k == exp) return false;
+            }
+            return k == to;
+        }
+
+        // closing quote of a JSON string; control characters are rejected as in strict JSON
+        private static int stringEnd(String s, int open) {
+            for (int i = open + 1; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '"') return i;
+                else if (c < ' ') return -1;
+            }
+            return -1;
+        }
+
+        private static int skipWs(String s, int i) {
+            while (i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) i++;
+            return i;
+        }
+    }
+}
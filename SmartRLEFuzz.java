@@ -0,0 +1,296 @@
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SmartRLEFuzz - Tohumlu özellik tabanlı round-trip testi ve hız kapısı
+ *
+ * Özellik: her yapılandırmada decompress(compress(x)).equals(x); ikili konteyner için ayrıca verify segment sayısı.
+ * x iyi biçimli metindir (tek başına vekil karakter yok): konteynerler UTF-8 bayt taşır.
+ * Girdiler tohumdan üretilir: kırılgan parçalar (ayrılmış kontrol karakterleri, eski __X__ / ~X~ yer tutucu
+ * metinleri, CRLF, sondaki boş satırlar, vekil çiftler), rastgele baytlar ve üretilmiş Apache/uygulama/JSON
+ * logları. Başarısız girdi parça parça küçültülür ve tohum + yapılandırmayla yazdırılır.
+ *
+ * Hız kapısı: her korpusta ikili konteyner compress/decompress MB/s ölçülür, FLOORS alt sınırıyla kıyaslanır.
+ *
+ * Kullanım: java SmartRLEFuzz [tohum] [girdi sayısı] [--no-speed] [--floor-scale x] [--record]
+ */
+public class SmartRLEFuzz {
+
+    // fragile pieces: every reserved char, the old text placeholders, escapes, EOL forms, surrogates
+    private static final String[] ATOMS = {
+        "a", "b", "the ", "and", " ", "\t", ";", ":", "|", "\\", "\n", "\r\n", "\r", "\n\n",
+        "\u0010", "\u0012", "\u0013", "\u0000", "\u0010Ia", "\u0013_1",
+        "__IP0__", "__ID1__", "__TS0__", "__ATS0__", "__FMT0__", "__FMTX__", "~D02~", "~P00~", "~L00~", "__",
+        "R:a:5;", "R|x|2|", "B4:", "S", "aaaaaaa", "=======", "héllo", "😀", "😀😀😀😀😀😀😀", "ß",
+        "2023-10-10 13:55:36", "10.0.0.1", "1234567", "123e4567-e89b-12d3-a456-426614174000",
+        "10.0.0.1 - - [10/Oct/2023:13:55:36 +0000] \"GET /x HTTP/1.1\" 200 5 \"-\" \"curl\"\n",
+        "{\"a\":1}\n", "    at com.example.Foo.bar(Foo.java:42)\n", "Caused by: java.io.IOException: x\n"
+    };
+
+    private static final String[] CONFIGS = {
+        "default", "full-plan", "container", "binary", "level1-binary", "level9", "format-none", "stream",
+        "stream-container", "stream-binary"
+    };
+
+    // MB/s floors per corpus {compress, decompress}, binary container at the default level.
+    // About a third of what a single core of the reference machine does, so only real regressions trip them;
+    // rerun with --record after an intentional change and update the values.
+    private static final String[] CORPORA = {"apache", "app", "json"};
+    private static final double[][] FLOORS = {
+        {0.7, 7.0},
+        {0.8, 9.0},
+        {2.0, 18.0},
+    };
+
+    public static void main(String[] args) {
+        long seed = 1L;
+        int cases = 2000;
+        boolean speed = true;
+        boolean record = false;
+        double floorScale = 1.0;
+        int positional = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--no-speed")) {
+                speed = false;
+            } else if (args[i].equals("--record")) {
+                record = true;
+            } else if (args[i].equals("--floor-scale")) {
+                floorScale = Double.parseDouble(args[++i]);
+            } else if (positional++ == 0) {
+                seed = Long.parseLong(args[i]);
+            } else {
+                cases = Integer.parseInt(args[i]);
+            }
+        }
+        int failures = run(seed, cases, System.out);
+        List<String> slow = speed ? speedGate(record ? 0.0 : floorScale, System.out) : new ArrayList<>();
+        for (String s : slow) System.out.println("SLOW " + s);
+        System.out.println("seed=" + seed + " cases=" + cases + " failures=" + failures + " slowCorpora=" + slow.size());
+        if (failures > 0 || !slow.isEmpty()) System.exit(1);
+    }
+
+    /**
+     * Tohumdan cases girdi üretir, her birini tüm yapılandırmalarda dener; başarısız yapılandırma sayısını döner
+     */
+    public static int run(long seed, int cases, PrintStream log) {
+        Random r = new Random(seed);
+        int failures = 0;
+        for (int c = 0; c < cases; c++) {
+            List<String> parts = new ArrayList<>();
+            generate(r, parts);
+            for (int config = 0; config < CONFIGS.length; config++) {
+                if (roundTrips(String.join("", parts), config)) continue;
+                failures++;
+                String minimal = shrink(parts, config);
+                log.println("FAIL seed=" + seed + " case=" + c + " config=" + CONFIGS[config] + " input=" + escape(minimal)
+                    + " error=" + failureOf(minimal, config));
+            }
+        }
+        return failures;
+    }
+
+    // one input: atom soup, random bytes, or a generated log (possibly CRLF / trailing blank lines)
+    private static void generate(Random r, List<String> parts) {
+        switch (r.nextInt(4)) {
+            case 0:
+            case 1:
+                int n = r.nextInt(40);
+                for (int i = 0; i < n; i++) {
+                    String atom = ATOMS[r.nextInt(ATOMS.length)];
+                    int repeat = r.nextInt(10) < 2 ? 2 + r.nextInt(8) : 1;
+                    for (int k = 0; k < repeat; k++) parts.add(atom);
+                }
+                break;
+            case 2:
+                byte[] bytes = new byte[r.nextInt(200)];
+                r.nextBytes(bytes);
+                String text = r.nextBoolean() ? new String(bytes, StandardCharsets.UTF_8) : new String(bytes, StandardCharsets.ISO_8859_1);
+                for (int i = 0; i < text.length(); i += 8) parts.add(text.substring(i, Math.min(text.length(), i + 8)));
+                break;
+            default:
+                String eol = r.nextInt(4) == 0 ? "\r\n" : "\n";
+                int lines = 1 + r.nextInt(60);
+                int kind = r.nextInt(3);
+                for (int i = 0; i < lines; i++) {
+                    String line = kind == 0 ? apacheLine(r) : kind == 1 ? appLine(r, eol) : jsonLine(r);
+                    // now and then a look-alike of our own encoding inside a real line
+                    if (r.nextInt(8) == 0) line += " " + ATOMS[r.nextInt(ATOMS.length)];
+                    parts.add(line + eol);
+                }
+                if (r.nextBoolean()) parts.add(eol.repeat(r.nextInt(3)));
+                else parts.set(parts.size() - 1, parts.get(parts.size() - 1).replace(eol, ""));
+                break;
+        }
+    }
+
+    private static final String[] PATHS = {"/", "/index.html", "/api/items", "/api/items/42", "/login", "/static/app.js"};
+    private static final String[] AGENTS = {"curl/8.0", "Mozilla/5.0 (X11; Linux x86_64)", "-"};
+    private static final String[] LEVELS = {"INFO", "WARN", "ERROR", "DEBUG"};
+
+    private static String apacheLine(Random r) {
+        return "10.0." + r.nextInt(4) + "." + r.nextInt(256) + " - - [10/Oct/2023:13:" + two(r.nextInt(60)) + ":" + two(r.nextInt(60))
+            + " +0000] \"" + (r.nextInt(5) == 0 ? "POST" : "GET") + " " + PATHS[r.nextInt(PATHS.length)] + " HTTP/1.1\" "
+            + (r.nextInt(10) == 0 ? 404 : 200) + " " + r.nextInt(5000) + " \"-\" \"" + AGENTS[r.nextInt(AGENTS.length)] + "\"";
+    }
+
+    private static String appLine(Random r, String eol) {
+        String line = "2023-10-10 13:" + two(r.nextInt(60)) + ":" + two(r.nextInt(60)) + "," + (100 + r.nextInt(900)) + " "
+            + LEVELS[r.nextInt(LEVELS.length)] + " [worker-" + r.nextInt(8) + "] request " + (1000000 + r.nextInt(9000000))
+            + " done in " + r.nextInt(300) + " ms";
+        if (r.nextInt(6) != 0) return line;
+        return line + eol + "java.lang.IllegalStateException: boom" + eol
+            + "    at com.example.Service.handle(Service.java:" + (10 + r.nextInt(3)) + ")" + eol
+            + "    at com.example.Worker.run(Worker.java:88)";
+    }
+
+    private static String jsonLine(Random r) {
+        return "{\"ts\":\"2023-10-10T13:55:" + two(r.nextInt(60)) + "Z\",\"level\":\"" + LEVELS[r.nextInt(LEVELS.length)]
+            + "\",\"user_id\":" + r.nextInt(100000) + ",\"msg\":\"item " + r.nextInt(50) + "\"}";
+    }
+
+    private static String two(int v) {
+        return v < 10 ? "0" + v : String.valueOf(v);
+    }
+
+    private static boolean roundTrips(String input, int config) {
+        return failureOf(input, config) == null;
+    }
+
+    // null when the property holds, else what went wrong
+    private static String failureOf(String input, int config) {
+        try {
+            String name = CONFIGS[config];
+            if (name.startsWith("stream")) return streamFailure(input, name);
+            SmartRLE codec = new SmartRLE();
+            if (name.equals("full-plan")) codec.setAdaptivePlanning(false);
+            if (name.equals("container")) codec.setContainerMode(true);
+            if (name.equals("level9")) codec.setCompressionLevel(9);
+            if (name.equals("format-none")) codec.setFormat("none");
+            if (name.endsWith("binary")) {
+                if (name.startsWith("level1")) codec.setCompressionLevel(1);
+                byte[] container = codec.compressToBytes(input);
+                if (SmartRLE.verify(container) != (input.isEmpty() ? 0 : 1)) return "verify";
+                return input.equals(new SmartRLE().decompressBytes(container)) ? null : "mismatch";
+            }
+            return input.equals(new SmartRLE().decompress(codec.compress(input))) ? null : "mismatch";
+        } catch (RuntimeException e) {
+            return String.valueOf(e);
+        }
+    }
+
+    // segments at line boundaries through one chunk-history codec, decoded in order by another;
+    // the single line after the middle is its own segment, small enough to end up stored in a container
+    private static String streamFailure(String input, String name) {
+        SmartRLE writer = new SmartRLE();
+        writer.setChunkHistory(1000);
+        if (!name.equals("stream")) writer.setContainerMode(true);
+        SmartRLE reader = new SmartRLE();
+        reader.setChunkHistory(1000);
+        for (String segment : streamSegments(input)) {
+            String back = name.equals("stream-binary")
+                ? reader.decompressBytes(writer.compressToBytes(segment))
+                : reader.decompress(writer.compress(segment));
+            if (!segment.equals(back)) return "mismatch";
+        }
+        return null;
+    }
+
+    private static List<String> streamSegments(String input) {
+        List<String> segments = new ArrayList<>();
+        int cut = input.indexOf('\n', input.length() / 2);
+        int next = cut < 0 ? -1 : input.indexOf('\n', cut + 1);
+        if (cut < 0) {
+            segments.add(input);
+        } else if (next < 0) {
+            segments.add(input.substring(0, cut + 1));
+            segments.add(input.substring(cut + 1));
+        } else {
+            segments.add(input.substring(0, cut + 1));
+            segments.add(input.substring(cut + 1, next + 1));
+            segments.add(input.substring(next + 1));
+        }
+        return segments;
+    }
+
+    // drops parts while the input still fails, down to a locally minimal one
+    private static String shrink(List<String> parts, int config) {
+        List<String> cur = new ArrayList<>(parts);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < cur.size(); i++) {
+                List<String> next = new ArrayList<>(cur);
+                next.remove(i);
+                if (!roundTrips(String.join("", next), config)) {
+                    cur = next;
+                    changed = true;
+                    i--;
+                }
+            }
+        }
+        return String.join("", cur);
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c >= 32 && c < 127) sb.append(c);
+            else sb.append(String.format("\\u%04x", (int) c));
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Her korpusta en iyi compress/decompress MB/s; FLOORS × floorScale altında kalanları döner (0 = yalnız ölç)
+     */
+    public static List<String> speedGate(double floorScale, PrintStream log) {
+        List<String> slow = new ArrayList<>();
+        for (int k = 0; k < CORPORA.length; k++) {
+            String text = corpus(CORPORA[k]);
+            double mb = text.getBytes(StandardCharsets.UTF_8).length / 1e6;
+            long bestCompress = Long.MAX_VALUE;
+            long bestDecompress = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                SmartRLE codec = new SmartRLE();
+                codec.setContainerMode(true);
+                long t0 = System.nanoTime();
+                byte[] container = codec.compressToBytes(text);
+                long t1 = System.nanoTime();
+                String back = new SmartRLE().decompressBytes(container);
+                long t2 = System.nanoTime();
+                if (!text.equals(back)) {
+                    slow.add(CORPORA[k] + " does not round-trip");
+                    break;
+                }
+                if (round == 0) continue; // warm-up
+                bestCompress = Math.min(bestCompress, t1 - t0);
+                bestDecompress = Math.min(bestDecompress, t2 - t1);
+            }
+            double c = mb / (bestCompress / 1e9);
+            double d = mb / (bestDecompress / 1e9);
+            log.printf("%-7s %6.2f MB  compress %7.1f MB/s (floor %5.1f)  decompress %7.1f MB/s (floor %5.1f)%n",
+                CORPORA[k], mb, c, FLOORS[k][0] * floorScale, d, FLOORS[k][1] * floorScale);
+            if (c < FLOORS[k][0] * floorScale) slow.add(String.format("%s compress %.1f MB/s", CORPORA[k], c));
+            if (d < FLOORS[k][1] * floorScale) slow.add(String.format("%s decompress %.1f MB/s", CORPORA[k], d));
+        }
+        return slow;
+    }
+
+    // fixed-seed corpora, about 1-2 MB each
+    static String corpus(String name) {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder(2 << 20);
+        for (int i = 0; sb.length() < 1_500_000; i++) {
+            if (name.equals("apache")) sb.append(apacheLine(r));
+            else if (name.equals("app")) sb.append(appLine(r, "\n"));
+            else sb.append(jsonLine(r));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
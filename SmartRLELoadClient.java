@@ -0,0 +1,109 @@
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SmartRLELoadClient - SmartRLEDaemon için yük testi istemcisi
+ *
+ * Her bağlantı dosyayı batch'lere bölüp compress ve ardından decompress ister; round-trip doğrulanır.
+ *
+ * Kullanım: java SmartRLELoadClient &lt;adres&gt; &lt;log dosyası&gt; [bağlantı] [batch KB] [tur]
+ */
+public class SmartRLELoadClient {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: SmartRLELoadClient <tcp:host:port|unix:/path> <file> [connections] [batchKB] [rounds]");
+            System.exit(2);
+        }
+        String spec = args[0];
+        String text = new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8);
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int batchChars = (args.length > 3 ? Integer.parseInt(args[3]) : 64) * 1024;
+        int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        List<byte[]> batches = splitOnLines(text, batchChars);
+        long totalBytes = 0;
+        for (byte[] b : batches) totalBytes += b.length;
+        System.out.println("Batches per round: " + batches.size() + ", bytes per round: " + totalBytes);
+
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        List<Future<long[]>> results = new ArrayList<>();
+        long t0 = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            results.add(pool.submit(() -> runConnection(spec, batches, rounds)));
+        }
+        List<Long> latencies = new ArrayList<>();
+        long compressedBytes = 0;
+        for (Future<long[]> f : results) {
+            long[] r = f.get();
+            compressedBytes += r[0];
+            for (int i = 1; i < r.length; i++) latencies.add(r[i]);
+        }
+        long elapsed = System.nanoTime() - t0;
+        pool.shutdown();
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        double seconds = elapsed / 1_000_000_000.0;
+        double mb = (double) totalBytes * rounds * connections / 1_000_000.0;
+        System.out.println("=== Load test: " + spec + " ===");
+        System.out.println("Connections: " + connections + ", rounds: " + rounds + ", requests: " + sorted.length * 2);
+        System.out.println(String.format("Throughput: %.2f MB/s (compress+decompress, %.2f s)", mb / seconds, seconds));
+        System.out.println(String.format("Ratio: %.2f%%", 100.0 * compressedBytes / (totalBytes * (double) rounds * connections)));
+        System.out.println(String.format("Round-trip latency ms: p50=%.2f p99=%.2f max=%.2f",
+            pct(sorted, 0.50), pct(sorted, 0.99), sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1_000_000.0));
+        try (SocketChannel c = SmartRLEDaemon.connect(spec)) {
+            System.out.println("Daemon: " + new String(SmartRLEDaemon.call(c, SmartRLEDaemon.OP_STATS, new byte[0]), StandardCharsets.UTF_8));
+        }
+    }
+
+    // returns {compressedBytes, latency nanos per batch...}
+    private static long[] runConnection(String spec, List<byte[]> batches, int rounds) throws Exception {
+        long[] out = new long[1 + batches.size() * rounds];
+        int k = 1;
+        try (SocketChannel c = SmartRLEDaemon.connect(spec)) {
+            for (int r = 0; r < rounds; r++) {
+                for (byte[] batch : batches) {
+                    long t = System.nanoTime();
+                    byte[] z = SmartRLEDaemon.call(c, SmartRLEDaemon.OP_COMPRESS, batch);
+                    byte[] back = SmartRLEDaemon.call(c, SmartRLEDaemon.OP_DECOMPRESS, z);
+                    out[k++] = System.nanoTime() - t;
+                    if (!Arrays.equals(batch, back)) {
+                        throw new IllegalStateException("round-trip mismatch");
+                    }
+                    out[0] += z.length;
+                }
+            }
+        }
+        return out;
+    }
+
+    private static List<byte[]> splitOnLines(String text, int batchChars) {
+        List<byte[]> out = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + batchChars);
+            if (end < text.length()) {
+                int nl = text.indexOf('\n', end);
+                end = nl < 0 ? text.length() : nl + 1;
+            }
+            out.add(text.substring(start, end).getBytes(StandardCharsets.UTF_8));
+            start = end;
+        }
+        return out;
+    }
+
+    private static double pct(long[] sorted, double q) {
+        if (sorted.length == 0) return 0.0;
+        int idx = (int) Math.min(sorted.length - 1, Math.max(0, Math.ceil(q * sorted.length) - 1));
+        return sorted[idx] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * SmartRLEService - Asenkron sıkıştırma servisi
+ *
+ * Özellikler:
+ * - Bloklamayan submit: CompletableFuture&lt;byte[]&gt; (compressToBytes çıktısı)
+ * - Küçük parçaların tek segmentte toplanması (daha iyi oran)
+ * - Sınırlı worker havuzu ve sınırlı kuyruk (backpressure)
+ * - Bloklayan varyantlar yalnızca java.util.concurrent kilitleri kullanır (synchronized yok),
+ *   böylece sanal thread'lerden çağrıldığında taşıyıcı thread'i sabitlemez
+ * - Kuyruk derinliği ve gecikme metrikleri
+ *
+ * Bir segmente toplanan tüm parçaların future'ları aynı byte[] ile tamamlanır; segment açıldığında
+ * parçaların gönderim sırasıyla birleşimini verir. Çağıranlar segmenti referans eşitliğiyle tekilleştirebilir.
+ */
+public class SmartRLEService implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_BYTES = 256 * 1024;
+    public static final long DEFAULT_LINGER_MILLIS = 20;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private final int batchBytes;
+    private final long lingerMillis;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService lingerTimer;
+    private final ThreadLocal<SmartRLE> codecs;
+    private final Semaphore capacity;           // one permit per queued/in-flight chunk
+
+    // open batch, guarded by batchLock
+    private final ReentrantLock batchLock = new ReentrantLock();
+    private List<Pending> openBatch = new ArrayList<>();
+    private int openBatchChars;
+    private ScheduledFuture<?> lingerFlush;
+    private volatile boolean closed;
+
+    // metrics
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong inputChars = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private final AtomicLong latencyNanosTotal = new AtomicLong();
+    private final AtomicLong latencyNanosMax = new AtomicLong();
+    private final LatencyWindow latencyWindow = new LatencyWindow(1024);
+
+    public SmartRLEService() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY,
+             DEFAULT_BATCH_BYTES, DEFAULT_LINGER_MILLIS, SmartRLE::new);
+    }
+
+    /**
+     * @param workerThreads worker havuzu boyutu
+     * @param queueCapacity aynı anda kuyrukta/işlemde olabilecek en fazla parça sayısı
+     * @param batchBytes    bir segmentte toplanacak hedef karakter sayısı (0: toplama yok)
+     * @param lingerMillis  yarım segmentin en fazla bekleme süresi
+     * @param codecFactory  worker başına SmartRLE üretir (ör. konteyner modu açık)
+     */
+    public SmartRLEService(int workerThreads, int queueCapacity, int batchBytes, long lingerMillis,
+                           Supplier<SmartRLE> codecFactory) {
+        if (workerThreads <= 0) throw new IllegalArgumentException("workerThreads must be > 0");
+        if (queueCapacity <= 0) throw new IllegalArgumentException("queueCapacity must be > 0");
+        this.batchBytes = Math.max(0, batchBytes);
+        this.lingerMillis = Math.max(0, lingerMillis);
+        this.capacity = new Semaphore(queueCapacity);
+        this.codecs = ThreadLocal.withInitial(codecFactory);
+        AtomicInteger ids = new AtomicInteger();
+        // the semaphore bounds the work, so the executor queue never grows past queueCapacity batches
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "smartrle-worker-" + ids.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "smartrle-linger");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Bloklamayan gönderim; kuyruk doluysa future RejectedExecutionException ile tamamlanır
+     */
+    public CompletableFuture<byte[]> submit(String chunk) {
+        if (closed) return rejectedFuture("service closed");
+        if (!capacity.tryAcquire()) {
+            rejected.incrementAndGet();
+            return rejectedFuture("queue full");
+        }
+        return enqueue(chunk);
+    }
+
+    /**
+     * Kuyrukta yer açılana kadar bekler (sanal thread dostu), sonra future döner
+     */
+    public CompletableFuture<byte[]> submitAwait(String chunk) throws InterruptedException {
+        if (closed) return rejectedFuture("service closed");
+        capacity.acquire();
+        return enqueue(chunk);
+    }
+
+    /**
+     * Kuyrukta yer açılana kadar bekler; zaman aşımında future reddedilir
+     */
+    public CompletableFuture<byte[]> submitAwait(String chunk, long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed) return rejectedFuture("service closed");
+        if (!capacity.tryAcquire(timeout, unit)) {
+            rejected.incrementAndGet();
+            return rejectedFuture("queue full after " + timeout + " " + unit);
+        }
+        return enqueue(chunk);
+    }
+
+    /**
+     * Bloklayan sıkıştırma: segment hazır olana kadar bekler
+     */
+    public byte[] compress(String chunk) throws InterruptedException, ExecutionException {
+        return submitAwait(chunk).get();
+    }
+
+    /**
+     * Açık segmenti hemen worker'a gönderir
+     */
+    public void flush() {
+        List<Pending> batch;
+        batchLock.lock();
+        try {
+            batch = takeOpenBatch();
+        } finally {
+            batchLock.unlock();
+        }
+        dispatch(batch);
+    }
+
+    /**
+     * Açık segmenti gönderir ve kuyruktaki tüm işlerin bitmesini bekler. Bekleme kesilemez; bekleme sırasında
+     * gelen interrupt, dönüşte thread'in interrupt bayrağı olarak korunur (süreli bekleme: awaitTermination)
+     */
+    @Override
+    public void close() {
+        shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Yeni iş kabulünü durdurur ve açık segmenti gönderir; beklemez
+     */
+    public void shutdown() {
+        closed = true;
+        flush();
+        lingerTimer.shutdownNow();
+        workers.shutdown();
+    }
+
+    /**
+     * shutdown() sonrası kuyruktaki işlerin bitmesini en fazla timeout kadar bekler; bittiyse true
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    private CompletableFuture<byte[]> enqueue(String chunk) {
+        Pending p = new Pending(chunk == null ? "" : chunk);
+        submitted.incrementAndGet();
+        updateDepth(queueDepth.incrementAndGet());
+
+        if (p.chunk.length() >= batchBytes) {
+            // large chunks are segments on their own; keep submission order with the open batch
+            List<Pending> before;
+            batchLock.lock();
+            try {
+                before = takeOpenBatch();
+            } finally {
+                batchLock.unlock();
+            }
+            dispatch(before);
+            List<Pending> single = new ArrayList<>(1);
+            single.add(p);
+            dispatch(single);
+            return p.future;
+        }
+
+        List<Pending> full = null;
+        batchLock.lock();
+        try {
+            openBatch.add(p);
+            openBatchChars += p.chunk.length();
+            if (openBatchChars >= batchBytes) {
+                full = takeOpenBatch();
+            } else if (lingerFlush == null) {
+                lingerFlush = lingerTimer.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            batchLock.unlock();
+        }
+        dispatch(full);
+        if (closed) flush(); // raced with close(): do not strand the open batch
+        return p.future;
+    }
+
+    // caller holds batchLock
+    private List<Pending> takeOpenBatch() {
+        if (openBatch.isEmpty()) return null;
+        List<Pending> batch = openBatch;
+        openBatch = new ArrayList<>();
+        openBatchChars = 0;
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(List<Pending> batch) {
+        if (batch == null || batch.isEmpty()) return;
+        batches.incrementAndGet();
+        try {
+            workers.execute(() -> runBatch(batch));
+        } catch (RejectedExecutionException e) {
+            finish(batch, null, e);
+        }
+    }
+
+    private void runBatch(List<Pending> batch) {
+        try {
+            String segment;
+            if (batch.size() == 1) {
+                segment = batch.get(0).chunk;
+            } else {
+                int len = 0;
+                for (Pending p : batch) len += p.chunk.length();
+                StringBuilder sb = new StringBuilder(len);
+                for (Pending p : batch) sb.append(p.chunk);
+                segment = sb.toString();
+            }
+            byte[] out = codecs.get().compressToBytes(segment);
+            inputChars.addAndGet(segment.length());
+            outputBytes.addAndGet(out.length);
+            finish(batch, out, null);
+        } catch (Throwable t) {
+            finish(batch, null, t);
+        }
+    }
+
+    private void finish(List<Pending> batch, byte[] out, Throwable error) {
+        long now = System.nanoTime();
+        for (Pending p : batch) {
+            long latency = now - p.submitNanos;
+            latencyNanosTotal.addAndGet(latency);
+            latencyNanosMax.accumulateAndGet(latency, Math::max);
+            latencyWindow.add(latency);
+            queueDepth.decrementAndGet();
+            capacity.release();
+            if (error == null) {
+                completed.incrementAndGet();
+                p.future.complete(out);
+            } else {
+                failed.incrementAndGet();
+                p.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private void updateDepth(int depth) {
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    private static CompletableFuture<byte[]> rejectedFuture(String reason) {
+        CompletableFuture<byte[]> f = new CompletableFuture<>();
+        f.completeExceptionally(new RejectedExecutionException(reason));
+        return f;
+    }
+
+    /**
+     * Anlık servis metrikleri
+     */
+    public ServiceStats getStats() {
+        ServiceStats s = new ServiceStats();
+        s.queueDepth = queueDepth.get();
+        s.maxQueueDepth = maxQueueDepth.get();
+        s.submitted = submitted.get();
+        s.rejected = rejected.get();
+        s.completed = completed.get();
+        s.failed = failed.get();
+        s.batches = batches.get();
+        s.inputChars = inputChars.get();
+        s.outputBytes = outputBytes.get();
+        long done = s.completed + s.failed;
+        s.avgLatencyMillis = done == 0 ? 0.0 : latencyNanosTotal.get() / (double) done / 1_000_000.0;
+        s.maxLatencyMillis = latencyNanosMax.get() / 1_000_000.0;
+        long[] recent = latencyWindow.snapshot();
+        s.p50LatencyMillis = percentile(recent, 0.50);
+        s.p99LatencyMillis = percentile(recent, 0.99);
+        return s;
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return 0.0;
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+        return sorted[Math.max(0, idx)] / 1_000_000.0;
+    }
+
+    public static class ServiceStats {
+        public int queueDepth;
+        public int maxQueueDepth;
+        public long submitted;
+        public long rejected;
+        public long completed;
+        public long failed;
+        public long batches;
+        public long inputChars;
+        public long outputBytes;
+        public double avgLatencyMillis;
+        public double maxLatencyMillis;
+        public double p50LatencyMillis;             // over the most recent 1024 chunks
+        public double p99LatencyMillis;
+
+        @Override
+        public String toString() {
+            return String.format("queue=%d (max %d), submitted=%d, rejected=%d, completed=%d, failed=%d, batches=%d, "
+                    + "latency avg=%.2fms p50=%.2fms p99=%.2fms max=%.2fms, %d chars -> %d bytes",
+                queueDepth, maxQueueDepth, submitted, rejected, completed, failed, batches,
+                avgLatencyMillis, p50LatencyMillis, p99LatencyMillis, maxLatencyMillis, inputChars, outputBytes);
+        }
+    }
+
+    private static final class Pending {
+        final String chunk;
+        final long submitNanos = System.nanoTime();
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        Pending(String chunk) {
+            this.chunk = chunk;
+        }
+    }
+
+    // fixed-size ring of recent latencies for percentile estimates
+    private static final class LatencyWindow {
+        private final long[] ring;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int next;
+        private int size;
+
+        LatencyWindow(int capacity) {
+            this.ring = new long[capacity];
+        }
+
+        void add(long nanos) {
+            lock.lock();
+            try {
+                ring[next] = nanos;
+                next = (next + 1) % ring.length;
+                if (size < ring.length) size++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long[] snapshot() {
+            long[] copy;
+            lock.lock();
+            try {
+                copy = new long[size];
+                System.arraycopy(ring, 0, copy, 0, size);
+            } finally {
+                lock.unlock();
+            }
+            java.util.Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 public class SmartRLETest {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         SmartRLE compressor = new SmartRLE();
 
         // Test 1: Tekrarlayan desenler ile test
@@ -59,6 +59,344 @@ public class SmartRLETest {
 
         SmartRLE.CompressionStats stats4 = compressor.getStats(test4, compressed4);
         System.out.println("Stats: " + stats4);
+        System.out.println("Plan: " + compressor.getStagePlan());
+        check(compressor.getStagePlan().indexOf('T') < 0, "planner skips token blocks on plain text");
+        check(test4.equals(compressor.decompress(compressed4)), "plain text round-trip");
+        System.out.println();
+
+        // Test 4b: Konteyner modu (genişleyen girdide ham/Deflate geri dönüşü)
+        SmartRLE container = new SmartRLE();
+        container.setContainerMode(true);
+        container.setDeflateLevels(1, 9);
+        String compressed4b = container.compress(test4);
+        System.out.println("=== Test 4b: Konteyner Modu ===");
+        System.out.println("Length: " + compressed4b.length());
+        check(compressed4b.length() <= SmartRLE.maxCompressedLength(test4.length()), "container output bounded by stored size");
+        check(test4.equals(container.decompress(compressed4b)), "container round-trip");
+        System.out.println();
+
+        // Test 5: Sıkıştırılmış veri üzerinde gruplama
+        String test5 =
+            "10.0.0.1 - - [10/Oct/2023:13:55:36 +0300] \"GET /index.html HTTP/1.1\" 200 2326 \"-\" \"curl/7.68.0\"\n" +
+            "10.0.0.2 - - [10/Oct/2023:13:55:40 +0300] \"GET /login HTTP/1.1\" 404 512 \"-\" \"curl/7.68.0\"\n" +
+            "10.0.0.1 - - [10/Oct/2023:13:56:02 +0300] \"POST /login HTTP/1.1\" 200 128 \"-\" \"curl/7.68.0\"\n" +
+            "10.0.0.3 - - [10/Oct/2023:13:57:11 +0300] \"GET /index.html HTTP/1.1\" 200 2326 \"-\" \"curl/7.68.0\"\n";
+        System.out.println("=== Test 5: Gruplama (Apache) ===");
+        String compressed5 = compressor.compress(test5);
+        SmartRLE.LogAggregates agg5 = compressor.aggregate(compressed5, 60);
+        System.out.println("Aggregates: " + agg5);
+        System.out.println("Per-minute: " + java.util.Arrays.toString(agg5.timeBuckets));
+        check(agg5.lines == 4, "aggregate line count");
+        check(agg5.statusHistogram().get("200") == 3 && agg5.statusHistogram().get("404") == 1, "aggregate status histogram");
+        check(java.util.Arrays.equals(agg5.timeBuckets, new int[] {2, 1, 1}), "aggregate minute buckets");
+        check(test5.equals(compressor.decompress(compressed5)), "apache round-trip");
+        String container5 = container.compress(test5 + test5 + test5 + test5);
+        check((test5 + test5 + test5 + test5).equals(container.decompress(container5)), "container apache round-trip");
+        check(container.aggregate(container5).lines == 16, "container aggregate line count");
+        byte[] binary5 = container.compressToBytes(test5 + test5 + test5 + test5);
+        System.out.println("Binary container: " + binary5.length + " bytes (text: " + container5.length() + ")");
+        check((test5 + test5 + test5 + test5).equals(container.decompressBytes(binary5)), "binary container round-trip");
+        check(container.aggregate(binary5, 60).statusHistogram().get("200") == 12, "binary container aggregate");
+        System.out.println();
+
+        // Test 6: Metrikler (opsiyonel)
+        SmartRLE metered = new SmartRLE();
+        metered.setMetricsEnabled(true);
+        String compressed6 = metered.compress(test5);
+        SmartRLE.CompressionMetrics m6 = metered.getLastMetrics();
+        System.out.println("=== Test 6: Metrikler ===");
+        System.out.println(m6);
+        check(m6.inputBytes == test5.length() && m6.stages.containsKey("preprocess"), "compress metrics recorded");
+        check(m6.cardinalities.get("STAT") == 2, "status cardinality");
+        check(test5.equals(metered.decompress(compressed6)) && "decompress".equals(metered.getLastMetrics().operation), "decompress metrics");
+        check(compressor.getLastMetrics() == null, "metrics disabled by default");
+        System.out.println();
+
+        // Test 6b: Tekrarlayan UUID'ler (büyük/küçük/karışık harf)
+        String u1 = "550e8400-e29b-41d4-a716-446655440000";
+        String test6b = "req " + u1 + " start\nreq " + u1 + " end\nreq " + u1.toUpperCase() + " retry\nreq 550E8400-e29b-41d4-a716-446655440000 mixed\n";
+        String compressed6b = metered.compress(test6b);
+        check(metered.getLastMetrics().cardinalities.get("UUID") == 3, "distinct UUID table");
+        check(test6b.equals(new SmartRLE().decompress(compressed6b)), "UUID round-trip");
+        System.out.println();
+
+        // Test 7: Asenkron servis (küçük parçalar tek segmentte)
+        System.out.println("=== Test 7: SmartRLEService ===");
+        try (SmartRLEService service = new SmartRLEService(2, 64, 1 << 20, 1000, SmartRLE::new)) {
+            java.util.List<java.util.concurrent.CompletableFuture<byte[]>> futures = new java.util.ArrayList<>();
+            for (int i = 0; i < 8; i++) futures.add(service.submit(test5));
+            service.flush();
+            byte[] segment = futures.get(0).get();
+            check(futures.stream().allMatch(f -> f.join() == segment), "chunks share one segment");
+            check((test5 + test5 + test5 + test5 + test5 + test5 + test5 + test5).equals(new SmartRLE().decompressBytes(segment)),
+                  "service segment round-trip");
+            System.out.println(service.getStats());
+            check(service.getStats().batches == 1 && service.getStats().queueDepth == 0, "service stats");
+        }
+        System.out.println();
+
+        // Test 8: Format eklentisi (nginx, $request_time ile)
+        System.out.println("=== Test 8: Log formatı ===");
+        StringBuilder nginx = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            nginx.append("10.0.0.").append(i % 7).append(" - - [10/Oct/2023:13:55:").append(10 + i % 50)
+                 .append(" +0000] \"GET /api/items/").append(i).append(" HTTP/1.1\" 200 ").append(100 + i)
+                 .append(" \"-\" \"curl/8.0\" 0.0").append(i % 10).append('\n');
+        }
+        nginx.append("__FMT0__\n");
+        SmartRLE formatted = new SmartRLE();
+        String nginxCompressed = formatted.compress(nginx.toString());
+        check("nginx".equals(formatted.getFormat()), "nginx format detected");
+        check(nginx.toString().equals(new SmartRLE().decompress(nginxCompressed)), "nginx format round-trip");
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            json.append("{\"ts\":\"2023-10-10T13:55:").append(10 + i).append(".").append(100 + i * 7)
+                .append("Z\", \"level\":\"").append(i % 3 == 0 ? "WARN" : "INFO").append("\",\"user_id\":").append(1000 + i * 3)
+                .append(",\"tags\":[\"a\",").append(i % 5).append("]}").append('\n');
+        }
+        SmartRLE jsonMode = new SmartRLE();
+        jsonMode.setFormat("json");
+        String jsonCompressed = jsonMode.compress(json.toString());
+        check(jsonCompressed.contains("FCOL:ts\tT") && jsonCompressed.contains("FCOL:user_id\tI"), "json typed columns");
+        check(json.toString().equals(new SmartRLE().decompress(jsonCompressed)), "json format round-trip");
+        System.out.println();
+
+        // Test 9: Header önbelleği (aynı arşiv ikinci kez açılınca header yeniden ayrıştırılmaz)
+        System.out.println("=== Test 9: Header önbelleği ===");
+        SmartRLE.HeaderCache cache = new SmartRLE.HeaderCache(4, 1 << 20);
+        SmartRLE cached = new SmartRLE();
+        cached.setHeaderCache(cache);
+        byte[] nginxBytes = formatted.compressToBytes(nginx.toString());
+        check(nginx.toString().equals(cached.decompressBytes(nginxBytes)), "cache miss round-trip");
+        check(nginx.toString().equals(cached.decompressBytes(nginxBytes)), "cache hit round-trip");
+        check(json.toString().equals(cached.decompress(jsonCompressed)) && test5.equals(cached.decompress(compressed5)),
+              "cache hit does not leak state into other archives");
+        check(nginx.toString().equals(cached.decompressBytes(nginxBytes)), "cache hit after other archives");
+        System.out.println(cache);
+        check(cache.getHits() == 2 && cache.getMisses() == 3, "cache hit/miss counters");
+        System.out.println();
+
+        // Test 10: Satır kodu bütçesi (LCODE tablosu sınırlı kalır, en çok kazandıranlar seçilir)
+        System.out.println("=== Test 10: LCODE bütçesi ===");
+        StringBuilder workers = new StringBuilder();
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < 600; i++) {
+            int k = random.nextInt(200);
+            workers.append("worker-").append(k).append(" heartbeat ok shard=").append(k % 17).append(" note=lorem ipsum dolor\n");
+        }
+        SmartRLE budgeted = new SmartRLE();
+        budgeted.setMetricsEnabled(true);
+        budgeted.setLineCodeBudget(20, 4000);
+        String workersCompressed = budgeted.compress(workers.toString());
+        System.out.println("Plan: " + budgeted.getStagePlan() + ", LCODE: " + budgeted.getLastMetrics().cardinalities.get("LCODE"));
+        check(budgeted.getLastMetrics().cardinalities.get("LCODE") <= 20, "LCODE within budget");
+        check(workers.toString().equals(new SmartRLE().decompress(workersCompressed)), "budgeted line coding round-trip");
+        System.out.println();
+
+        // Test 11: Koşu opcode'u (';' içeren bloklar, veride OP karakteri, sondaki boş satırlar)
+        System.out.println("=== Test 11: Koşu opcode'u ===");
+        String tricky = "a;b\\c\na;b\\c\n\u0012\u0012\u0012\u0012\u0012 x\nzzzzzzzz\n\n\n";
+        SmartRLE opcodes = new SmartRLE();
+        opcodes.setAdaptivePlanning(false);
+        check(tricky.equals(new SmartRLE().decompress(opcodes.compress(tricky))), "run opcode round-trip");
+        System.out.println();
+
+        // Test 12: Parça (chunk) referansları: uzak tekrarlanan yığın izleri, segmentler arası akış
+        System.out.println("=== Test 12: Parça referansları ===");
+        StringBuilder trace = new StringBuilder("java.lang.IllegalStateException: pool exhausted\n");
+        for (int i = 0; i < 24; i++) {
+            trace.append("\tat com.acme.db.Pool.acquire").append(i).append("(Pool.java:").append(100 + i * 7).append(")\n");
+        }
+        StringBuilder app = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            app.append("2023-10-10 13:55:").append(10 + i % 50).append(" INFO request ").append(i * 37 % 1000).append(" ok\n");
+            if (i % 40 == 7) app.append(trace);
+        }
+        SmartRLE chunked = new SmartRLE();
+        String chunkedCompressed = chunked.compress(app.toString());
+        System.out.println("Plan: " + chunked.getStagePlan() + ", " + app.length() + " -> " + chunkedCompressed.length());
+        check(chunked.getStagePlan().indexOf('C') >= 0, "chunk stage planned for repeated traces");
+        check(app.toString().equals(new SmartRLE().decompress(chunkedCompressed)), "chunk ref round-trip");
+        SmartRLE streamed = new SmartRLE();
+        streamed.setChunkHistory(1 << 12);
+        String half = app.substring(0, app.indexOf("\n", app.length() / 2) + 1);
+        byte[] first = streamed.compressToBytes(half);
+        byte[] second = streamed.compressToBytes(app.substring(half.length()));
+        SmartRLE reader = new SmartRLE();
+        check(app.toString().equals(reader.decompressBytes(first) + reader.decompressBytes(second)), "chunk stream round-trip");
+        boolean outOfOrder = false;
+        try {
+            new SmartRLE().decompressBytes(second);
+        } catch (IllegalStateException e) {
+            outOfOrder = true;
+        }
+        check(outOfOrder, "chunk stream segment needs its predecessors");
+        // a stored segment in the middle carries no CHUNKS: line; the stream must not run ahead of the reader
+        SmartRLE storedMid = new SmartRLE();
+        storedMid.setChunkHistory(1 << 12);
+        storedMid.setContainerMode(true);
+        String[] parts = {trace.toString(), "x\n", trace.toString()};
+        StringBuilder textBack = new StringBuilder();
+        StringBuilder binBack = new StringBuilder();
+        SmartRLE textReader = new SmartRLE();
+        SmartRLE binReader = new SmartRLE();
+        for (String part : parts) textBack.append(textReader.decompress(storedMid.compress(part)));
+        storedMid.resetChunkHistory();
+        for (String part : parts) binBack.append(binReader.decompressBytes(storedMid.compressToBytes(part)));
+        check(String.join("", parts).equals(textBack.toString()) && String.join("", parts).equals(binBack.toString()),
+              "chunk stream survives a stored segment");
+        System.out.println();
+
+        // Test 13: Çok satırlı kayıtlar (devam satırları tek birim; girintili/boş satırlar birebir döner)
+        System.out.println("=== Test 13: Çok satırlı kayıtlar ===");
+        StringBuilder records = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            records.append("2023-10-10 13:55:").append(10 + i % 50).append(" ERROR call ").append(i).append(" failed\n");
+            records.append("Caused by: java.io.IOException: connection reset\n");
+            for (int k = 0; k < 3 + i % 2; k++) records.append("\tat com.acme.api.Handler.step").append(k).append("(Handler.java:").append(40 + k).append(")\n");
+            if (i % 7 == 0) records.append("  indented note\n\n");
+        }
+        SmartRLE recordCodec = new SmartRLE();
+        String recordsCompressed = recordCodec.compress(records.toString());
+        System.out.println("Plan: " + recordCodec.getStagePlan() + ", " + records.length() + " -> " + recordsCompressed.length());
+        check(records.toString().equals(new SmartRLE().decompress(recordsCompressed)), "record round-trip (adaptive)");
+        recordCodec.setAdaptivePlanning(false);
+        check(records.toString().equals(new SmartRLE().decompress(recordCodec.compress(records.toString()))), "record round-trip (full plan)");
+        System.out.println();
+
+        // Test 14: Sıkıştırma seviyeleri (1 hızlı aşama kümesi, 9 en küçük çıktı)
+        System.out.println("=== Test 14: Sıkıştırma seviyeleri ===");
+        SmartRLE fast = new SmartRLE();
+        fast.setContainerMode(true);
+        fast.setCompressionLevel(1);
+        byte[] fastBytes = fast.compressToBytes(app.toString());
+        SmartRLE small = new SmartRLE();
+        small.setContainerMode(true);
+        small.setCompressionLevel(9);
+        byte[] smallBytes = small.compressToBytes(app.toString());
+        System.out.println("Level 1: " + fast.getStagePlan() + " " + fastBytes.length + " bytes, level 9: "
+            + small.getStagePlan() + " " + smallBytes.length + " bytes");
+        check(fast.getStagePlan().chars().allMatch(c -> "LR".indexOf(c) >= 0), "level 1 runs only line coding and RLE");
+        check(smallBytes.length <= fastBytes.length, "level 9 not larger than level 1");
+        check(app.toString().equals(new SmartRLE().decompressBytes(fastBytes))
+              && app.toString().equals(new SmartRLE().decompressBytes(smallBytes)), "level round-trips");
+        boolean badLevel = false;
+        try {
+            fast.setCompressionLevel(10);
+        } catch (IllegalArgumentException e) {
+            badLevel = true;
+        }
+        check(badLevel, "invalid level rejected");
+        System.out.println();
+
+        // Test 15: Tampon havuzu (aşama tamponları geri dönüştürülür, çift release güvenli)
+        System.out.println("=== Test 15: Tampon havuzu ===");
+        SmartRLE.BufferPool pool = new SmartRLE.BufferPool(8, 1 << 22);
+        SmartRLE pooled = new SmartRLE();
+        pooled.setBufferPool(pool);
+        SmartRLE pooledReader = new SmartRLE();
+        pooledReader.setBufferPool(pool);
+        boolean pooledOk = true;
+        for (int r = 0; r < 3; r++) {
+            pooledOk &= app.toString().equals(pooledReader.decompress(pooled.compress(app.toString())));
+        }
+        System.out.println(pool);
+        check(pooledOk, "round-trip with pooled buffers");
+        check(pool.getReuses() > pool.getAllocations(), "buffers reused across calls");
+        StringBuilder once = pool.acquire(16);
+        pool.release(once);
+        pool.release(once);
+        check(pool.acquire(16) != pool.acquire(16), "double release hands a buffer out once");
+        pool.release(new StringBuilder(1 << 23));
+        check(pool.getPooledChars() <= (1 << 22), "oversized buffer not retained");
+        System.out.println();
+
+        // Test 16: CRC32C bütünlük denetimi (hızlı verify, bozuk bayt reddedilir)
+        System.out.println("=== Test 16: CRC32C bütünlük ===");
+        SmartRLE sealed = new SmartRLE();
+        sealed.setContainerMode(true);
+        byte[] sealedA = sealed.compressToBytes(app.toString());
+        byte[] sealedB = sealed.compressToBytes(records.toString());
+        byte[] archive = java.util.Arrays.copyOf(sealedA, sealedA.length + sealedB.length);
+        System.arraycopy(sealedB, 0, archive, sealedA.length, sealedB.length);
+        check(SmartRLE.verify(archive) == 2, "verify counts intact segments");
+        byte[] damaged = sealedA.clone();
+        damaged[damaged.length / 2] ^= 0x10;
+        boolean verifyCaught = false;
+        try {
+            SmartRLE.verify(damaged);
+        } catch (IllegalArgumentException e) {
+            verifyCaught = true;
+        }
+        boolean decodeCaught = false;
+        try {
+            new SmartRLE().decompressBytes(damaged);
+        } catch (IllegalArgumentException e) {
+            decodeCaught = true;
+        }
+        check(verifyCaught && decodeCaught, "flipped bit rejected by verify and decompressBytes");
+        boolean truncCaught = false;
+        try {
+            SmartRLE.verify(java.util.Arrays.copyOf(sealedA, sealedA.length - 3));
+        } catch (IllegalArgumentException e) {
+            truncCaught = true;
+        }
+        check(truncCaught, "truncated segment rejected");
+        // bad Huffman tables: code length > 12, over-subscribed (Kraft), impossible symbol count
+        byte[] longCode = new byte[1 + 128 + 2];
+        longCode[0] = 1;
+        longCode[1 + 'a' / 2] = 0x0F;
+        byte[] kraft = new byte[1 + 128 + 2];
+        kraft[0] = 3;
+        kraft[1 + 'a' / 2] = 0x11;
+        kraft[1 + 'c' / 2] = 0x10;
+        byte[] hugeCount = new byte[5 + 128 + 2];
+        hugeCount[0] = hugeCount[1] = hugeCount[2] = hugeCount[3] = (byte) 0xFF;
+        hugeCount[4] = 0x07; // varint Integer.MAX_VALUE
+        hugeCount[5 + 'a' / 2] = 0x10;
+        int huffRejected = 0;
+        for (byte[] bad : new byte[][] {longCode, kraft, hugeCount}) {
+            try {
+                new SmartRLE().decompress("DATA:HUFF\n[DATA]\n" + java.util.Base64.getEncoder().encodeToString(bad));
+            } catch (IllegalArgumentException e) {
+                huffRejected++;
+            }
+        }
+        check(huffRejected == 3, "corrupt Huffman tables rejected");
+        String runs = new SmartRLE().compress("xyz" + "a".repeat(40));
+        boolean runCaught = false;
+        try {
+            new SmartRLE().decompress(runs.substring(0, runs.length() - 1));
+        } catch (IllegalArgumentException e) {
+            runCaught = true;
+        }
+        check(runCaught, "run without its character rejected");
+        System.out.println();
+
+        // Test 17: Yer tutucu benzeri girdi (eski __X__ / ~X~ biçimi ve ayrılmış TAG karakteri)
+        System.out.println("=== Test 17: Yer tutucu çakışması ===");
+        StringBuilder lookalike = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            lookalike.append("2023-10-10 13:55:").append(10 + i).append(" INFO user __ID1__ at __IP0__ code ~D02~ ~P00~ and the\n");
+            lookalike.append("~L00~\n");
+            lookalike.append("id 1234567").append(i).append(" raw \u0010Ia tag \u0010\u0010 end\n");
+        }
+        lookalike.append("__FMT0__");
+        String look = lookalike.toString();
+        check(look.equals(new SmartRLE().decompress(new SmartRLE().compress(look))), "look-alike placeholders round-trip");
+        SmartRLE lookBin = new SmartRLE();
+        lookBin.setContainerMode(true);
+        check(look.equals(new SmartRLE().decompressBytes(lookBin.compressToBytes(look))), "look-alike placeholders round-trip (binary)");
+        System.out.println();
+
+        // Test 18: Round-trip özelliği (Test 1-4 + tohumlu fuzz; CRLF/LF karışık, sondaki boş satırlar)
+        System.out.println("=== Test 18: Round-trip özelliği ===");
+        check(test1.equals(new SmartRLE().decompress(compressed1)) && test2.equals(new SmartRLE().decompress(compressed2))
+              && test3.equals(new SmartRLE().decompress(compressed3)) && test4.equals(new SmartRLE().decompress(compressed4)),
+              "tests 1-4 round-trip");
+        String mixedEol = "a\r\nb\nc\r\n\r\n\n";
+        check(mixedEol.equals(new SmartRLE().decompress(new SmartRLE().compress(mixedEol))), "mixed CRLF/LF round-trip");
+        check(SmartRLEFuzz.run(1L, 200, System.out) == 0, "seeded fuzz round-trip (200 inputs x 8 configs)");
         System.out.println();
 
         // Performans karşılaştırması
@@ -72,4 +410,11 @@ public class SmartRLETest {
                               stats3.compressionRatio + stats4.compressionRatio) / 4;
         System.out.println("Ortalama Sıkıştırma Oranı: " + String.format("%.2f%%", averageRatio));
     }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("FAILED: " + what);
+        }
+        System.out.println("OK: " + what);
+    }
 }